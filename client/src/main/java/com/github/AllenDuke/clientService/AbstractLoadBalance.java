@@ -0,0 +1,47 @@
+package com.github.AllenDuke.clientService;
+
+/**
+ * @author 杜科
+ * @description 负载均衡策略的骨架，只有一个节点时直接返回；
+ * 策略选出的节点不健康（连接都已断开或因连续超时被暂停）或是要避开的节点时，从它之后找第一个健康的节点，
+ * 都不健康时退回到第一个可用的节点，最后才是要避开的节点
+ * @contact AllenDuke@163.com
+ * @since 2020/3/16
+ */
+public abstract class AbstractLoadBalance implements LoadBalance {
+
+    @Override
+    public ServerNode select(ServerNode[] nodes) {
+        return select(nodes, null);
+    }
+
+    @Override
+    public ServerNode select(ServerNode[] nodes, ServerNode exclude) {
+        if (nodes.length == 1) return available(nodes[0]);
+        int index = doSelect(nodes);
+        ServerNode fallback = null;
+        for (int i = 0; i < nodes.length; i++) {
+            ServerNode node = nodes[(index + i) % nodes.length];
+            if (node == exclude || !node.isAvailable()) continue;
+            if (node.isHealthy()) return node;
+            if (fallback == null) fallback = node;
+        }
+        if (fallback != null) return fallback;
+        if (exclude != null && exclude.isAvailable()) return exclude;
+        throw new RuntimeException("集群中没有可用的节点");
+    }
+
+    private ServerNode available(ServerNode node) {
+        if (!node.isAvailable()) throw new RuntimeException("节点 " + node + " 不可用");
+        return node;
+    }
+
+    /**
+     * @description: 由具体策略实现，选出节点的下标，不需要考虑可用性
+     * @param nodes 集群中所有的节点，至少有两个
+     * @return: int 节点下标
+     * @author: 杜科
+     * @date: 2020/3/16
+     */
+    protected abstract int doSelect(ServerNode[] nodes);
+}
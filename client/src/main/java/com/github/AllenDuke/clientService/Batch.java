@@ -0,0 +1,60 @@
+package com.github.AllenDuke.clientService;
+
+import com.github.AllenDuke.dto.ClientMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author 杜科
+ * @description 批量调用，由RPCClient.newBatch创建，先add若干调用，再send。
+ * send时整批选出一条连接，所有调用放在一帧中发出，服务端按配置并行或顺序执行后在一帧中返回全部结果。
+ * 每个调用有自己的future，与add的顺序一致；超时重试时各个调用单独重发，互不影响。
+ * 不是线程安全的，应由一个线程组装并发送，send后不能再add。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/28
+ */
+public class Batch {
+
+    private final List<ClientMessage> messages = new ArrayList<>();
+
+    private boolean sent = false;
+
+    Batch() {
+    }
+
+    /**
+     * @description: 加入一个调用，按方法名和实参在接口中找到要调用的方法
+     * @param serivceClass 服务要实现的接口
+     * @param methodName 要调用的方法名
+     * @param args 方法的参数
+     * @return: com.github.AllenDuke.clientService.Batch 当前批量调用，可以继续add
+     * @author: 杜科
+     * @date: 2020/3/28
+     */
+    public Batch add(Class<?> serivceClass, String methodName, Object... args) {
+        if (sent) throw new IllegalStateException("批量调用已发送");
+        messages.add(RPCClient.newMessage(serivceClass, methodName, args));
+        return this;
+    }
+
+    /**
+     * @description: 发送所有调用
+     * @return: java.util.List<java.util.concurrent.CompletableFuture<java.lang.Object>> 与add顺序一致的future，
+     * 成功时为调用结果，失败时为InvokeFailedException，超时时为InvokeTimeOutException
+     * @author: 杜科
+     * @date: 2020/3/28
+     */
+    public List<CompletableFuture<Object>> send() {
+        if (sent) throw new IllegalStateException("批量调用已发送");
+        sent = true;
+        if (messages.isEmpty()) return Collections.emptyList();
+        return RPCClient.selectHandler().sendBatchAsync(messages.toArray(new ClientMessage[0]));
+    }
+
+    public int size() {
+        return messages.size();
+    }
+}
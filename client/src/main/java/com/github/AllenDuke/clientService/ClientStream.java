@@ -0,0 +1,132 @@
+package com.github.AllenDuke.clientService;
+
+import com.github.AllenDuke.dto.StreamChunk;
+import com.github.AllenDuke.exception.InvokeFailedException;
+import com.github.AllenDuke.exception.InvokeTimeOutException;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.BaseStream;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @author 杜科
+ * @description 客户端的流式结果，以Iterator的方式逐个消费服务端分块发来的元素。
+ * netty线程把收到的块放入队列，消费者线程取出一块时归还一个credit，服务端才会再发一块，
+ * 因此队列中的块数不会超过服务端的窗口，结果再大，客户端也只缓冲这么多。
+ * 每取一块最多等待一个超时时间（没有超时机制时一直等待），超时后取消这条流并抛出InvokeTimeOutException；
+ * 服务端出错时抛出InvokeFailedException。不再需要剩余的元素时应调用close，通知服务端停止发送。
+ * 迭代器只能由一个线程消费。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/29
+ */
+public class ClientStream<T> implements Iterator<T>, AutoCloseable {
+
+    private final RPCClientHandler handler;
+
+    private final long requestId;
+
+    //收到的块，由netty线程放入
+    private final LinkedBlockingQueue<StreamChunk> chunks = new LinkedBlockingQueue<>();
+
+    //正在消费的块中的元素
+    private Object[] current;
+
+    private int position;
+
+    //已经取到最后一块，或已取消
+    private boolean finished = false;
+
+    ClientStream(RPCClientHandler handler, long requestId) {
+        this.handler = handler;
+        this.requestId = requestId;
+    }
+
+    //netty线程收到一块
+    void onChunk(StreamChunk chunk) {
+        chunks.offer(chunk);
+    }
+
+    //服务端没有以流的方式返回（调用失败，或实现方法返回的不是Iterator、Stream），把结果当作唯一的一块
+    void onResult(boolean succeed, Object result) {
+        if (!succeed) onChunk(new StreamChunk(requestId, null, true, String.valueOf(result)));
+        else if (result instanceof Collection) onChunk(new StreamChunk(requestId, ((Collection<?>) result).toArray(), true, null));
+        else onChunk(new StreamChunk(requestId, new Object[]{result}, true, null));
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (current == null || position == current.length) {
+            if (finished) return false;
+            StreamChunk chunk = take();
+            if (chunk.getError() != null) {
+                finished = true;
+                throw new InvokeFailedException(chunk.getError());
+            }
+            current = chunk.getItems() == null ? new Object[0] : chunk.getItems();
+            position = 0;
+            if (chunk.isLast()) finished = true;
+            else handler.sendCredit(requestId, 1);//这一块已经离开队列，允许服务端再发一块
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return (T) current[position++];
+    }
+
+    private StreamChunk take() {
+        try {
+            if (RPCClient.timeout == -1) return chunks.take();
+            StreamChunk chunk = chunks.poll(RPCClient.timeout, TimeUnit.MILLISECONDS);
+            if (chunk != null) return chunk;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new InvokeFailedException("等待流式结果时被中断");
+        }
+        close();
+        throw new InvokeTimeOutException(PendingCall.TIME_OUT_RESULT);
+    }
+
+    //不再消费，通知服务端停止发送
+    @Override
+    public void close() {
+        if (finished) return;
+        finished = true;
+        current = null;
+        handler.cancelStream(requestId);
+    }
+
+    /**
+     * @description: 把流式结果包装成接口方法声明的Stream，元素仍随消费逐块接收，关闭Stream即关闭这条流
+     * @param type 接口方法的返回类型，Stream、IntStream、LongStream、DoubleStream或BaseStream
+     * @return: java.util.stream.BaseStream<?,?>
+     * @author: 杜科
+     * @date: 2020/3/29
+     */
+    public BaseStream<?, ?> asStream(Class<?> type) {
+        Stream<T> stream = StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED),
+                false).onClose(this::close);
+        if (type == IntStream.class) return stream.mapToInt(e -> ((Number) e).intValue());
+        if (type == LongStream.class) return stream.mapToLong(e -> ((Number) e).longValue());
+        if (type == DoubleStream.class) return stream.mapToDouble(e -> ((Number) e).doubleValue());
+        return stream;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.AllenDuke.clientService;
+
+import com.github.AllenDuke.exception.ArgNotFoundExecption;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 杜科
+ * @description 与一个服务端之间的连接池，每条连接有自己的业务处理器和待决表。
+ * netty线程组会把连接轮流分配给各个eventLoop，所以多条连接可以把编解码和收发分摊到多个netty线程、多个核上，
+ * 而不是所有caller都挤在一条socket、一个eventLoop上。
+ * 发送时按策略选择连接：
+ * leastPending：从轮询的位置开始，选在途调用最少的连接（连接数一般不多，直接扫描）
+ * roundRobin：轮询
+ * 两种策略都跳过已断开的连接。断开的连接不会重连，所有连接都断开后这个节点不再可用，
+ * 负载均衡会改选其他节点。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/15
+ */
+@Slf4j
+public class ConnectionPool {
+
+    public static final String LEAST_PENDING = "leastPending";
+
+    public static final String ROUND_ROBIN = "roundRobin";
+
+    private final ServerNode node;
+
+    private final RPCClientHandler[] handlers;
+
+    private final boolean leastPending;
+
+    //轮询位置
+    private final AtomicInteger index = new AtomicInteger(0);
+
+    /**
+     * @param bootstrap 已设置好pipeline的bootstrap，每条连接都会有一个新的业务处理器
+     * @param node 服务端节点
+     * @param size 连接数
+     * @param select 选择策略，leastPending或roundRobin
+     */
+    public ConnectionPool(Bootstrap bootstrap, ServerNode node, int size, String select)
+            throws InterruptedException {
+        if (!LEAST_PENDING.equals(select) && !ROUND_ROBIN.equals(select))
+            throw new ArgNotFoundExecption("不支持的连接选择策略：" + select);
+        this.node = node;
+        this.leastPending = LEAST_PENDING.equals(select);
+        this.handlers = new RPCClientHandler[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                Channel channel = bootstrap.connect(node.getHost(), node.getPort()).sync().channel();
+                handlers[i] = channel.pipeline().get(RPCClientHandler.class);
+                handlers[i].setNode(node);
+            }
+        } catch (Exception e) {//某条连接建立失败，关闭已经建立的连接，不让它们泄漏
+            close();
+            throw e;
+        }
+        log.info("已建立到 " + node + " 的 " + size + " 条连接");
+    }
+
+    /**
+     * @description: 按策略选择一条可用的连接
+     * @return: com.github.AllenDuke.clientService.RPCClientHandler
+     * @author: 杜科
+     * @date: 2020/3/15
+     */
+    public RPCClientHandler select() {
+        int n = handlers.length;
+        int start = (index.getAndIncrement() & Integer.MAX_VALUE) % n;
+        if (!leastPending) {
+            for (int i = 0; i < n; i++) {
+                RPCClientHandler handler = handlers[(start + i) % n];
+                if (handler.isActive()) return handler;
+            }
+            throw new RuntimeException("没有到 " + node + " 的可用连接");
+        }
+        RPCClientHandler best = null;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            RPCClientHandler handler = handlers[(start + i) % n];
+            if (!handler.isActive()) continue;
+            int pending = handler.getPendingTable().size();
+            if (pending < min) {
+                min = pending;
+                best = handler;
+                if (pending == 0) break;//不会有更少的了
+            }
+        }
+        if (best == null) throw new RuntimeException("没有到 " + node + " 的可用连接");
+        return best;
+    }
+
+    //是否还有可用的连接
+    public boolean isAvailable() {
+        for (RPCClientHandler handler : handlers) {
+            if (handler.isActive()) return true;
+        }
+        return false;
+    }
+
+    //当前所有连接的在途调用数
+    public int pendingCount() {
+        int sum = 0;
+        for (RPCClientHandler handler : handlers) sum += handler.getPendingTable().size();
+        return sum;
+    }
+
+    public void close() {
+        for (RPCClientHandler handler : handlers) {
+            if (handler != null && handler.getContext() != null) handler.getContext().close();
+        }
+    }
+
+    public ServerNode getNode() {
+        return node;
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.AllenDuke.clientService;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author 杜科
+ * @description 最少活跃调用数，选在途调用最少的节点，处理得快的节点在途调用少，会分到更多的请求。
+ * 从随机位置开始扫描，使在途调用数相同的节点被均匀地选中。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/16
+ */
+public class LeastActiveLoadBalance extends AbstractLoadBalance {
+
+    @Override
+    protected int doSelect(ServerNode[] nodes) {
+        int n = nodes.length;
+        int start = ThreadLocalRandom.current().nextInt(n);
+        int best = start;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            int index = (start + i) % n;
+            if (!nodes[index].isAvailable()) continue;
+            int active = nodes[index].getActive();
+            if (active < min) {
+                min = active;
+                best = index;
+            }
+        }
+        return best;
+    }
+}
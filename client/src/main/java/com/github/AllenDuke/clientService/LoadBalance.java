@@ -0,0 +1,30 @@
+package com.github.AllenDuke.clientService;
+
+/**
+ * @author 杜科
+ * @description 负载均衡策略，从集群的节点中选出本次调用要发往的节点
+ * @contact AllenDuke@163.com
+ * @since 2020/3/16
+ */
+public interface LoadBalance {
+
+    /**
+     * @description: 选择一个可用的节点
+     * @param nodes 集群中所有的节点
+     * @return: com.github.AllenDuke.clientService.ServerNode 没有可用节点时抛出RuntimeException
+     * @author: 杜科
+     * @date: 2020/3/16
+     */
+    ServerNode select(ServerNode[] nodes);
+
+    /**
+     * @description: 选择一个可用的节点，尽量不选exclude，用于把超时的请求重新路由到别的节点。
+     * 除了exclude没有其他可用的节点时，返回exclude
+     * @param nodes 集群中所有的节点
+     * @param exclude 要避开的节点，可以为null
+     * @return: com.github.AllenDuke.clientService.ServerNode 没有可用节点时抛出RuntimeException
+     * @author: 杜科
+     * @date: 2020/3/17
+     */
+    ServerNode select(ServerNode[] nodes, ServerNode exclude);
+}
@@ -0,0 +1,37 @@
+package com.github.AllenDuke.clientService;
+
+import com.github.AllenDuke.exception.ArgNotFoundExecption;
+
+/**
+ * @author 杜科
+ * @description 根据rpc.yml中的loadBalance参数选择负载均衡策略
+ * @contact AllenDuke@163.com
+ * @since 2020/3/16
+ */
+public class LoadBalanceFactory {
+
+    public static final String ROUND_ROBIN = "roundRobin";
+
+    public static final String LEAST_ACTIVE = "leastActive";
+
+    public static final String P2C = "p2c";
+
+    public static final String WEIGHTED = "weighted";
+
+    /**
+     * @description: 按名字创建负载均衡策略，缺省为轮询
+     * @param name roundRobin、leastActive、p2c或weighted
+     * @return: com.github.AllenDuke.clientService.LoadBalance
+     * @author: 杜科
+     * @date: 2020/3/16
+     */
+    public static LoadBalance getLoadBalance(String name) {
+        if (name == null || ROUND_ROBIN.equals(name)) return new RoundRobinLoadBalance();
+        if (LEAST_ACTIVE.equals(name)) return new LeastActiveLoadBalance();
+        if (P2C.equals(name)) return new P2CLoadBalance();
+        if (WEIGHTED.equals(name)) return new WeightedLoadBalance();
+        throw new ArgNotFoundExecption("不支持的负载均衡策略：" + name);
+    }
+
+    private LoadBalanceFactory(){}
+}
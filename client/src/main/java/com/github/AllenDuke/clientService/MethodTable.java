@@ -0,0 +1,70 @@
+package com.github.AllenDuke.clientService;
+
+import com.github.AllenDuke.dto.HandshakeMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author 杜科
+ * @description 服务端在握手时公布的方法表，由服务名和方法签名的哈希得到方法id。
+ * 每个服务的签名哈希排好序存放在int数组中，查找时二分，不需要装箱，也不需要拼接字符串。
+ * 方法表属于一条连接（服务端重启、重连后方法id可能变化），收到握手消息前没有方法表，请求退回到发送类名和方法名。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/21
+ */
+public class MethodTable {
+
+    //服务名与该服务的方法
+    private final Map<String, ServiceMethods> services = new HashMap<>();
+
+    public MethodTable(HandshakeMessage handshake) {
+        String[] serviceNames = handshake.getServiceNames();
+        int[] methodHashes = handshake.getMethodHashes();
+        Map<String, List<long[]>> grouped = new HashMap<>();
+        for (int i = 0; i < serviceNames.length; i++)
+            grouped.computeIfAbsent(serviceNames[i], k -> new ArrayList<>()).add(new long[]{methodHashes[i], i + 1});
+        for (Map.Entry<String, List<long[]>> entry : grouped.entrySet())
+            services.put(entry.getKey(), new ServiceMethods(entry.getValue()));
+    }
+
+    /**
+     * @description: 得到方法id
+     * @param className 服务名
+     * @param methodHash 方法签名的哈希
+     * @return: int 方法id，服务端没有公布这个方法时为0
+     * @author: 杜科
+     * @date: 2020/3/21
+     */
+    public int idOf(String className, int methodHash) {
+        if (methodHash == 0) return 0;
+        ServiceMethods methods = services.get(className);
+        return methods == null ? 0 : methods.idOf(methodHash);
+    }
+
+    //一个服务的方法，按签名哈希排序
+    private static class ServiceMethods {
+
+        private final int[] hashes;
+
+        private final int[] ids;
+
+        ServiceMethods(List<long[]> methods) {
+            methods.sort((a, b) -> Long.compare(a[0], b[0]));
+            hashes = new int[methods.size()];
+            ids = new int[methods.size()];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = (int) methods.get(i)[0];
+                ids[i] = (int) methods.get(i)[1];
+            }
+        }
+
+        int idOf(int methodHash) {
+            int index = Arrays.binarySearch(hashes, methodHash);
+            return index < 0 ? 0 : ids[index];
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.AllenDuke.clientService;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author 杜科
+ * @description 二选一（power of two choices），随机取两个不同的节点，选代价小的一个。
+ * 代价 = 延迟的移动平均 *（在途调用数 + 1），变慢的节点代价升高，很快就不会被选中，
+ * 只比较两个节点，节点再多选择的花费也是常数，而且不会像全局最优那样让所有客户端同时涌向同一个节点。
+ * 还没有延迟样本的节点代价为0，会被优先探测。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/16
+ */
+public class P2CLoadBalance extends AbstractLoadBalance {
+
+    @Override
+    protected int doSelect(ServerNode[] nodes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int n = nodes.length;
+        int a = random.nextInt(n);
+        int b = random.nextInt(n - 1);
+        if (b >= a) b++;//保证与a不同
+        return cost(nodes[a]) <= cost(nodes[b]) ? a : b;
+    }
+
+    private double cost(ServerNode node) {
+        if (!node.isAvailable()) return Double.MAX_VALUE;
+        return (double) node.getEwmaNanos() * (node.getActive() + 1);
+    }
+}
@@ -0,0 +1,275 @@
+package com.github.AllenDuke.clientService;
+
+import com.github.AllenDuke.dto.ClientMessage;
+import com.github.AllenDuke.event.TimeOutEvent;
+import com.github.AllenDuke.exception.InvokeFailedException;
+import com.github.AllenDuke.exception.InvokeTimeOutException;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author 杜科
+ * @description 一次还没有得到结果的调用，以请求id登记在所在连接的待决表中。
+ * 一条记录就包含了调用的全部状态：请求id、caller（或future）、结果、截止时间，不需要再分散到多个map。
+ * 同步调用记录park的caller，异步调用记录future，二者只有其一。
+ * 结果只会被设置一次，先到的（结果或超时）生效，由CAS保证，不加锁。
+ * 自身就是时间轮上的定时任务，到期时交由所在连接的业务处理器处理；收到结果时取消定时任务，取消的花费是O(1)。
+ * 超时重试时调用可能被转移到别的节点的连接上，此时以新连接分配的请求id重新登记，所以连接和请求id是可变的。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/12
+ */
+public class PendingCall implements TimerTask {
+
+    //超时提示
+    public static final String TIME_OUT_RESULT = "调用超时";
+
+    //状态：等待结果
+    private static final int WAITING = 0;
+
+    //状态：已抢到设置结果的权利，正在设置
+    private static final int COMPLETING = 1;
+
+    //状态：结果已设置
+    private static final int DONE = 2;
+
+    private static final AtomicIntegerFieldUpdater<PendingCall> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(PendingCall.class, "state");
+
+    //所在连接的业务处理器
+    private volatile RPCClientHandler handler;
+
+    private volatile long requestId;
+
+    private final ClientMessage message;
+
+    //同步调用的caller
+    private final Thread waiter;
+
+    //异步调用的future
+    private final CompletableFuture<Object> future;
+
+    //调用结果，有可能为失败或超时的提示字符串，在state变为DONE之前写入
+    private Object result;
+
+    //没能得到结果的原因（如发送失败），同步调用在await中抛出，在state变为DONE之前写入
+    private RuntimeException failure;
+
+    //发送时间，纳秒，用于统计延迟
+    private volatile long startNanos = System.nanoTime();
+
+    //截止时间，毫秒，没有超时机制时为Long.MAX_VALUE
+    private volatile long deadline;
+
+    private volatile int state = WAITING;
+
+    //时间轮上的定时任务，没有超时机制时为null
+    private volatile Timeout timeout;
+
+    //第一次超时时创建，记录剩余的重试次数
+    private TimeOutEvent event;
+
+    //是否已经因为节点过载转移过，只转移一次，避免在都过载的节点间来回转移
+    private volatile boolean redirected = false;
+
+    private PendingCall(RPCClientHandler handler, long requestId, ClientMessage message, Thread waiter,
+                        CompletableFuture<Object> future, long deadline) {
+        this.handler = handler;
+        this.requestId = requestId;
+        this.message = message;
+        this.waiter = waiter;
+        this.future = future;
+        this.deadline = deadline;
+    }
+
+    //由当前线程发起的同步调用
+    public static PendingCall sync(RPCClientHandler handler, long requestId, ClientMessage message, long deadline) {
+        return new PendingCall(handler, requestId, message, Thread.currentThread(), null, deadline);
+    }
+
+    //异步调用
+    public static PendingCall async(RPCClientHandler handler, long requestId, ClientMessage message, long deadline) {
+        return new PendingCall(handler, requestId, message, null, new CompletableFuture<>(), deadline);
+    }
+
+    //时间轮到期回调，由时间轮线程执行
+    @Override
+    public void run(Timeout timeout) {
+        handler.onTimeOut(this);
+    }
+
+    /**
+     * @description: 收到服务端的结果，同步调用唤醒caller，异步调用结束future，
+     * 失败时异步调用以InvokeFailedException结束
+     * @param succeed 是否调用成功
+     * @param result 调用结果或错误提示
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/12
+     */
+    public void complete(boolean succeed, Object result) {
+        if (!STATE.compareAndSet(this, WAITING, COMPLETING)) return;
+        Timeout t = timeout;
+        if (t != null) t.cancel();
+        if (future != null) {
+            state = DONE;
+            if (succeed) future.complete(result);
+            else future.completeExceptionally(new InvokeFailedException(String.valueOf(result)));
+            return;
+        }
+        this.result = result;
+        state = DONE;//volatile写，caller看到DONE时一定能看到result
+        LockSupport.unpark(waiter);
+    }
+
+    /**
+     * @description: 没有得到服务端的结果就结束（如发送失败），同步调用在await中抛出，异步调用以它结束future
+     * @param cause 原因
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/4/2
+     */
+    public void fail(RuntimeException cause) {
+        if (!STATE.compareAndSet(this, WAITING, COMPLETING)) return;
+        Timeout t = timeout;
+        if (t != null) t.cancel();
+        if (future != null) {
+            state = DONE;
+            future.completeExceptionally(cause);
+            return;
+        }
+        this.failure = cause;
+        state = DONE;
+        LockSupport.unpark(waiter);
+    }
+
+    /**
+     * @description: 重试用完后仍然超时，同步调用返回超时提示，异步调用以InvokeTimeOutException结束
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/12
+     */
+    public void timeOut() {
+        if (!STATE.compareAndSet(this, WAITING, COMPLETING)) return;
+        if (future != null) {
+            state = DONE;
+            future.completeExceptionally(new InvokeTimeOutException(TIME_OUT_RESULT));
+            return;
+        }
+        this.result = TIME_OUT_RESULT;
+        state = DONE;
+        LockSupport.unpark(waiter);
+    }
+
+    /**
+     * @description: 同步调用的caller在此park直到有结果，循环检查以防止虚假唤醒。
+     * caller被中断时不再等待：移出待决表，以InvokeFailedException结束，返回前恢复中断标志；
+     * 否则中断后park总是立即返回，会一直空转到结果返回（没有超时机制时可能永远不会返回）
+     * @return: java.lang.Object 调用结果
+     * @throws RuntimeException 调用以fail结束时
+     * @author: 杜科
+     * @date: 2020/3/12
+     */
+    public Object await() {
+        boolean interrupted = false;
+        while (state != DONE) {
+            if (interrupted) {//已经以失败结束，或者结果正在写入，很快就会变为DONE
+                Thread.yield();
+                continue;
+            }
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
+                handler.abandon(this);
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null) throw failure;
+        return result;
+    }
+
+    /**
+     * @description: 得到超时事件，第一次超时时创建，之后的重试沿用同一个事件以保留剩余重试次数
+     * @return: com.github.AllenDuke.event.TimeOutEvent
+     * @author: 杜科
+     * @date: 2020/3/14
+     */
+    public TimeOutEvent getEvent() {
+        if (event == null) event = new TimeOutEvent(message, deadline - RPCClient.timeout, handler);
+        return event;
+    }
+
+    /**
+     * @description: 转移到另一条连接，此时调用已经移出原连接的待决表，还没有登记到新连接的待决表，
+     * 不会被其他线程看到。原连接上迟到的结果因为找不到原请求id而被抛弃
+     * @param handler 新连接的业务处理器
+     * @param requestId 新连接分配的请求id
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/17
+     */
+    public void reroute(RPCClientHandler handler, long requestId) {
+        this.handler = handler;
+        this.requestId = requestId;
+        message.setRequestId(requestId);//原信息早在超时前就已编码发出
+        this.startNanos = System.nanoTime();//延迟从转移后重新计算
+        if (event != null) event.setHandler(handler);
+    }
+
+    /**
+     * @description: 节点过载拒绝了调用，标记为已转移，只有第一次返回true
+     * @return: boolean 是否可以转移到其他节点
+     * @author: 杜科
+     * @date: 2020/3/31
+     */
+    public boolean redirect() {
+        if (redirected) return false;
+        redirected = true;
+        return true;
+    }
+
+    //取消时间轮上的定时任务，转移前调用，否则原定时任务会按新连接的请求id提前判为超时
+    public void cancelTimeout() {
+        Timeout t = timeout;
+        if (t != null) t.cancel();
+    }
+
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public ClientMessage getMessage() {
+        return message;
+    }
+
+    public CompletableFuture<Object> getFuture() {
+        return future;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    public RPCClientHandler getHandler() {
+        return handler;
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.AllenDuke.clientService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author 杜科
+ * @description 待决表，以基本类型long（请求id）为key的无锁开放定址表，value为PendingCall。
+ * 请求id在连接内单调递增，所以直接以 id & mask 作为起始槽位，连续的请求会落在连续的槽位上，很少冲突。
+ * 冲突时向后线性探测，最多探测maxProbe个槽位，查找与删除也只在这个窗口内进行：
+ * 插入：CAS 空槽位->call；删除：CAS call->空。
+ * 因为每个id只插入一次，不需要墓碑，删除后槽位可以直接复用，查找也不会因为中间的空槽位而提前结束。
+ * 窗口内都被占用时（在途调用远多于容量），退回到ConcurrentHashMap，保证任何情况下都正确。
+ * 整个过程没有锁，也不会装箱Long（退回的情况除外）。
+ * 每条连接一张表，默认容量只有1024个槽位，在途调用通常只有几百个；在途调用更多时可以配置maxPending，
+ * 配置了maxInFlight而没有配置maxPending时按maxInFlight取容量。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/13
+ */
+public class PendingCallTable {
+
+    //默认容量，需为2的幂
+    public static final int DEFAULT_CAPACITY = 1 << 10;
+
+    //最大探测长度
+    private static final int MAX_PROBE = 16;
+
+    private final AtomicReferenceArray<PendingCall> table;
+
+    private final int mask;
+
+    private final int maxProbe;
+
+    //槽位不够时的退路
+    private final ConcurrentHashMap<Long, PendingCall> overflow = new ConcurrentHashMap<>();
+
+    //当前在途调用数
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    public PendingCallTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 容量，会向上取整为2的幂
+     */
+    public PendingCallTable(int capacity) {
+        int n = 1;
+        while (n < capacity) n <<= 1;
+        this.table = new AtomicReferenceArray<>(n);
+        this.mask = n - 1;
+        this.maxProbe = Math.min(MAX_PROBE, n);
+    }
+
+    /**
+     * @description: 登记一个调用，同一个请求id只能登记一次
+     * @param call 待决的调用，其请求id已经分配
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/13
+     */
+    public void put(PendingCall call) {
+        long requestId = call.getRequestId();
+        int index = (int) requestId & mask;
+        size.incrementAndGet();
+        for (int i = 0; i < maxProbe; i++) {
+            if (table.get(index) == null && table.compareAndSet(index, null, call)) return;
+            index = (index + 1) & mask;
+        }
+        overflow.put(requestId, call);
+    }
+
+    /**
+     * @description: 查找调用，不移出
+     * @param requestId 请求id
+     * @return: com.github.AllenDuke.clientService.PendingCall 找不到时为null
+     * @author: 杜科
+     * @date: 2020/3/13
+     */
+    public PendingCall get(long requestId) {
+        int index = (int) requestId & mask;
+        for (int i = 0; i < maxProbe; i++) {
+            PendingCall call = table.get(index);
+            if (call != null && call.getRequestId() == requestId) return call;
+            index = (index + 1) & mask;
+        }
+        return overflow.isEmpty() ? null : overflow.get(requestId);
+    }
+
+    /**
+     * @description: 移出调用，并发移出同一个id时只有一个线程能得到它
+     * @param requestId 请求id
+     * @return: com.github.AllenDuke.clientService.PendingCall 找不到（已经被移出）时为null
+     * @author: 杜科
+     * @date: 2020/3/13
+     */
+    public PendingCall remove(long requestId) {
+        int index = (int) requestId & mask;
+        for (int i = 0; i < maxProbe; i++) {
+            PendingCall call = table.get(index);
+            if (call != null && call.getRequestId() == requestId) {
+                if (!table.compareAndSet(index, call, null)) return null;//被别的线程抢先移出
+                size.decrementAndGet();
+                return call;
+            }
+            index = (index + 1) & mask;
+        }
+        if (overflow.isEmpty()) return null;
+        PendingCall call = overflow.remove(requestId);
+        if (call != null) size.decrementAndGet();
+        return call;
+    }
+
+    /**
+     * @description: 移出所有调用，连接断开时使用，与并发的移出之间同样只有一方能得到同一个调用
+     * @return: java.util.List<com.github.AllenDuke.clientService.PendingCall>
+     * @author: 杜科
+     * @date: 2020/4/2
+     */
+    public List<PendingCall> drain() {
+        List<PendingCall> calls = new ArrayList<>();
+        for (int index = 0; index <= mask; index++) {
+            PendingCall call = table.get(index);
+            if (call != null && table.compareAndSet(index, call, null)) {
+                size.decrementAndGet();
+                calls.add(call);
+            }
+        }
+        for (Long requestId : overflow.keySet()) {
+            PendingCall call = overflow.remove(requestId);
+            if (call == null) continue;
+            size.decrementAndGet();
+            calls.add(call);
+        }
+        return calls;
+    }
+
+    public boolean contains(long requestId) {
+        return get(requestId) != null;
+    }
+
+    //在途调用数
+    public int size() {
+        return size.get();
+    }
+}
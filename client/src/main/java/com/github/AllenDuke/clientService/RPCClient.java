@@ -1,28 +1,41 @@
 package com.github.AllenDuke.clientService;
 
 
+import com.github.AllenDuke.codec.FlushCoalescingHandler;
+import com.github.AllenDuke.codec.Protocol;
+import com.github.AllenDuke.codec.RPCMessageDecoder;
+import com.github.AllenDuke.codec.RPCMessageEncoder;
 import com.github.AllenDuke.dto.ClientMessage;
-import com.github.AllenDuke.event.TimeOutEvent;
 import com.github.AllenDuke.exception.ArgNotFoundExecption;
 import com.github.AllenDuke.listener.DefaultTimeOutListener;
 import com.github.AllenDuke.listener.TimeOutListener;
+import com.github.AllenDuke.serializer.Serializer;
+import com.github.AllenDuke.serializer.SerializerFactory;
+import com.github.AllenDuke.serializer.TypeWhitelist;
+import com.github.AllenDuke.util.MethodSignature;
 import com.github.AllenDuke.util.YmlUtil;
 import io.netty.bootstrap.Bootstrap;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.BaseStream;
 
 /**
  * @author 杜科
@@ -38,14 +51,11 @@ public class RPCClient {
     //初始化标志
     private static boolean isInit = false;
 
-    //关闭标志，用于
-    protected static boolean shutdown=false;
+    //服务提供方节点，可以是一个（serverHost、serverPort）或多个（servers）
+    protected static ServerNode[] nodes;
 
-    //服务提供方主机地址
-    private static String serverHost;
-
-    //服务提供方端口号
-    private static int serverPort;
+    //负载均衡策略
+    protected static LoadBalance loadBalance;
 
     //是否允许超时，不允许将一直阻塞
     protected static long timeout = -1;
@@ -53,18 +63,58 @@ public class RPCClient {
     //超时重试次数
     public static int retryNum=0;
 
+    //每条连接待决表的容量，超出后仍然正确，但会退化为ConcurrentHashMap。没有配置时按maxInFlight，都没有配置时为1024
+    protected static int maxPending= PendingCallTable.DEFAULT_CAPACITY;
+
+    //每条连接在途调用数的上限，为0不限制
+    protected static int maxInFlight=0;
+
+    //连接不可写或在途调用达到上限时，caller是否立即失败，false时阻塞等待（最多一个超时时间）
+    protected static boolean failFast=false;
+
+    //发送缓冲区的高低水位，字节，为null时使用netty的默认值（32K、64K）
+    private static WriteBufferWaterMark waterMark;
+
     //netty线程数
     private static int workerSize= 0;//为0将使用默认值：cpu核数*2
 
+    //最大帧长度，收发的单条消息都不能超过这个长度
+    private static int maxFrameLength= Protocol.DEFAULT_MAX_FRAME_LENGTH;
+
+    //发送时使用的序列化器，接收时按帧头选择
+    private static Serializer serializer;
+
     //netty线程组
     private static NioEventLoopGroup group;
 
-    //业务处理器
-    public static RPCClientHandler clientHandler;
+    //每个服务端的连接数
+    private static int connectionNum=1;
+
+    //发送时选择连接的策略，leastPending或roundRobin
+    private static String poolSelect=ConnectionPool.LEAST_PENDING;
+
+    //合并flush的最多次数，为0不合并
+    private static int flushMaxMessages=0;
+
+    //合并flush的最长推迟时间，微秒
+    private static long flushMaxDelayMicros=FlushCoalescingHandler.DEFAULT_MAX_DELAY_MICROS;
+
 
     //超时监听者
     protected static TimeOutListener listener;
 
+    //时间轮每一格的时长，毫秒，决定了超时的精度
+    private static long tickDuration=10;
+
+    //时间轮，只在调用到期时才触发，已返回的调用取消定时任务即可，不需要反复扫描
+    protected static HashedWheelTimer timer;
+
+    //接口方法与其签名的哈希
+    private static final Map<Method, Integer> methodHashes = new ConcurrentHashMap<>();
+
+    //接口与其所有方法，异步调用时按方法名查找
+    private static final Map<Class<?>, Method[]> interfaceMethods = new ConcurrentHashMap<>();
+
     /**
      * @description: 注册超时监听器，当发生超时时，将调用监听器里的相关方法
      * @param timeOutListener 超时监听器
@@ -81,53 +131,141 @@ public class RPCClient {
     /**
      * @param
      * @description: 用户在使用前要先初始化，否则将抛异常。
-     * 初始化时，将解析rpc.yml，设置相应的参数，至少包含serverHost,serverPort
+     * 初始化时，将解析rpc.yml，设置相应的参数，至少包含serverHost,serverPort或者servers（集群）
      * synchronized防止并发初始化，这里不用volatile和dubble-check是因为用户应该尽量保持只有一个线程在初始化，
      * 这样为了不增加编码复杂度，使用synchronized的花费也不高，较为直观。
      * @return: void
      * @author: 杜科
      * @date: 2020/2/28
      */
+    @SuppressWarnings("unchecked")
     public synchronized static void init() {
         if (isInit) return;
         isInit = true;
         Map<String, Object> map = YmlUtil.getResMap("client");
-        if (!map.containsKey("serverHost")) throw new ArgNotFoundExecption("rpc.yml缺少参数serverHost!");
-        serverHost = (String) map.get("serverHost");
-        if (!map.containsKey("serverPort")) throw new ArgNotFoundExecption("rpc.yml缺少参数serverPort!");
-        serverPort = (Integer) map.get("serverPort");
+        nodes = parseNodes(map);
+        loadBalance = LoadBalanceFactory.getLoadBalance((String) map.get("loadBalance"));
         if (map.containsKey("timeout")) timeout = new Long((int) map.get("timeout"));
         if(map.containsKey("retryNum")) retryNum=(int) map.get("retryNum");
+        if(map.containsKey("tickDuration")) tickDuration= (int) map.get("tickDuration");
         if(map.containsKey("workerSize")) workerSize= (int) map.get("workerSize");
-        clientHandler = new RPCClientHandler();
-        if(timeout!=-1&&listener==null) listener=new DefaultTimeOutListener();//设置默认监听器(注意初始化顺序)
+        if(map.containsKey("maxPending")) maxPending= (int) map.get("maxPending");
+        if(map.containsKey("connectionNum")) connectionNum= (int) map.get("connectionNum");
+        if(map.containsKey("poolSelect")) poolSelect= (String) map.get("poolSelect");
+        if(map.containsKey("maxFrameLength")) maxFrameLength= (int) map.get("maxFrameLength");
+        if(map.containsKey("flushCoalescing")) parseFlushCoalescing((Map<String, Object>) map.get("flushCoalescing"));
+        if(map.containsKey("maxInFlight")) maxInFlight= (int) map.get("maxInFlight");
+        if(!map.containsKey("maxPending")&&maxInFlight>0) maxPending=maxInFlight;//在途调用不会超过上限，按上限取容量
+        if(map.containsKey("backpressure")) failFast= parseBackpressure((String) map.get("backpressure"));
+        if(map.containsKey("writeBufferWaterMark")) waterMark= parseWaterMark((Map<String, Object>) map.get("writeBufferWaterMark"));
+        serializer= SerializerFactory.getSerializer((String) map.get("serializer"));
+        if(timeout!=-1){
+            if(listener==null) listener=new DefaultTimeOutListener();//设置默认监听器(注意初始化顺序)
+            timer=new HashedWheelTimer(new DefaultThreadFactory("watcher",true),
+                    tickDuration, TimeUnit.MILLISECONDS);
+        }
         group = new NioEventLoopGroup(workerSize);
         try {
             Bootstrap bootstrap = new Bootstrap();
             bootstrap.group(group)
                     .channel(NioSocketChannel.class)
                     .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                            waterMark==null ? WriteBufferWaterMark.DEFAULT : waterMark)//超过高水位不可写
                     .handler(
                             new ChannelInitializer<SocketChannel>() {
                                 @Override
                                 protected void initChannel(SocketChannel ch) throws Exception {
                                     ChannelPipeline pipeline = ch.pipeline();
-                                    ByteBuf delimiter = Unpooled.copiedBuffer("}".getBytes());//“}”为分隔符
-                                    pipeline.addLast(new DelimiterBasedFrameDecoder(2048,
-                                            false, delimiter));//不去除分割符
-                                    pipeline.addLast(new StringEncoder());//outbound编码器
-                                    pipeline.addLast(new StringDecoder());//inbound解码器
-                                    pipeline.addLast(clientHandler);//业务处理器
+                                    if(flushMaxMessages>0)//放在最前面，拦截所有flush
+                                        pipeline.addLast(new FlushCoalescingHandler(flushMaxMessages,flushMaxDelayMicros));
+                                    pipeline.addLast(new RPCMessageDecoder(maxFrameLength));//inbound解码器，按长度字段切帧
+                                    pipeline.addLast(new RPCMessageEncoder(serializer,maxFrameLength));//outbound编码器
+                                    pipeline.addLast(new RPCClientHandler());//业务处理器，每条连接一个
                                 }
                             }
                     );
-            bootstrap.connect(serverHost, serverPort).sync();
+            for (ServerNode node : nodes) {
+                try {
+                    node.setPool(new ConnectionPool(bootstrap,node,connectionNum,poolSelect));
+                } catch (Exception e) {//某个节点连接失败不影响其他节点
+                    log.error("连接节点 "+node+" 失败",e);
+                }
+            }
         } catch (Exception e) {
             e.printStackTrace();
             group.shutdownGracefully();
         }
     }
 
+    //开启合并flush，参数缺省时使用默认值
+    private static void parseFlushCoalescing(Map<String, Object> map) {
+        flushMaxMessages=FlushCoalescingHandler.DEFAULT_MAX_MESSAGES;
+        if(map==null) return;
+        if(map.containsKey("maxMessages")) flushMaxMessages= (int) map.get("maxMessages");
+        if(map.containsKey("maxDelayMicros")) flushMaxDelayMicros= (int) map.get("maxDelayMicros");
+    }
+
+    //背压策略，block或failFast
+    private static boolean parseBackpressure(String backpressure) {
+        if("failFast".equals(backpressure)) return true;
+        if("block".equals(backpressure)) return false;
+        throw new ArgNotFoundExecption("不支持的背压策略："+backpressure);
+    }
+
+    private static WriteBufferWaterMark parseWaterMark(Map<String, Object> map) {
+        if(map==null||!map.containsKey("low")||!map.containsKey("high"))
+            throw new ArgNotFoundExecption("rpc.yml中writeBufferWaterMark缺少参数low或high!");
+        return new WriteBufferWaterMark((int) map.get("low"), (int) map.get("high"));
+    }
+
+    /**
+     * @description: 解析服务提供方节点，servers为集群中各节点的地址（host:port 或 host:port:weight），
+     * 没有servers时使用serverHost和serverPort
+     * @param map rpc.yml中client下的参数
+     * @return: com.github.AllenDuke.clientService.ServerNode[]
+     * @author: 杜科
+     * @date: 2020/3/16
+     */
+    private static ServerNode[] parseNodes(Map<String, Object> map) {
+        if (map.containsKey("servers")) {
+            List<?> servers = (List<?>) map.get("servers");
+            if (servers.isEmpty()) throw new ArgNotFoundExecption("rpc.yml中servers为空!");
+            ServerNode[] result = new ServerNode[servers.size()];
+            for (int i = 0; i < result.length; i++) result[i] = ServerNode.parse(String.valueOf(servers.get(i)));
+            return result;
+        }
+        if (!map.containsKey("serverHost")) throw new ArgNotFoundExecption("rpc.yml缺少参数serverHost!");
+        if (!map.containsKey("serverPort")) throw new ArgNotFoundExecption("rpc.yml缺少参数serverPort!");
+        return new ServerNode[]{new ServerNode((String) map.get("serverHost"), (Integer) map.get("serverPort"), 1)};
+    }
+
+    //按负载均衡策略选出节点，再从节点的连接池中选出连接
+    static RPCClientHandler selectHandler() {
+        return loadBalance.select(nodes).getPool().select();
+    }
+
+    //服务名，即接口名（去掉包名）加上Impl
+    private static String implName(Class<?> serivceClass) {
+        String className = serivceClass.getName();
+        return className.substring(className.lastIndexOf(".") + 1) + "Impl";//去掉包名
+    }
+
+    //得到接口方法签名的哈希，计算一次后缓存
+    private static int methodHash(Method method) {
+        Integer hash = methodHashes.get(method);
+        if (hash == null) {
+            hash = MethodSignature.hash(method);
+            methodHashes.put(method, hash);
+        }
+        return hash;
+    }
+
+    //选出连接，尽量避开exclude节点，用于超时重试
+    static RPCClientHandler selectHandler(ServerNode exclude) {
+        return loadBalance.select(nodes, exclude).getPool().select();
+    }
+
     /**
      * @param serivceClass 服务要实现的接口
      * @description: 返回一个代理对象（jdk动态代理）
@@ -137,33 +275,110 @@ public class RPCClient {
      * service.sayHello(),此时进入invokeHandler的invoke方法，将向服务方寻求HelloServiceImpl类的sayHello()方法的结果
      * 即生成一条信息交由netty线程发送，阻塞或超时地等待结果
      * 其中结果有可能是错误信息或者超时提示字符串，用户应注意抛出 ClassCastException
+     * 接口方法的返回类型是CompletableFuture或CompletionStage时（服务端为异步实现），改为异步调用，直接返回future
+     * 接口方法的返回类型是Iterator或Stream时为流式调用，返回ClientStream（Stream时包装成对应的Stream），消费时才逐块接收结果
      * @return: java.lang.Object
      * @author: 杜科
      * @date: 2020/2/12
      */
     public static Object getServiceImpl(final Class<?> serivceClass) {
         if (!isInit) throw new RuntimeException("还没有init");
+        methodsOf(serivceClass);//登记参数和返回类型，收到的结果才能按类名反序列化
+        final String className = implName(serivceClass);//只计算一次，调用时不再拼接
         return Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
                 new Class<?>[]{serivceClass}, (proxy, method, args) -> {
                     //lamda表达式，匿名内部类实现InvokeInhandler接口，重写invoke方法
 
-                    String className = serivceClass.getName();
-                    className = className.substring(className.lastIndexOf(".") + 1) + "Impl";//去掉包名
-                    ClientMessage clientMessage = new ClientMessage(Thread.currentThread().getId(),
-                            className, method.getName(), args);
-                    clientHandler.sendMsg(clientMessage);//caller park
-                    Object result = clientHandler.getResult(Thread.currentThread().getId());//unpark后获取结果
-//                    if(result.getClass()==method.getReturnType())
-                    return result;
+                    ClientMessage clientMessage = new ClientMessage(className, method.getName(),
+                            methodHash(method), args);
+                    Class<?> returnType = method.getReturnType();
+                    if (returnType == CompletableFuture.class || returnType == CompletionStage.class)
+                        return selectHandler().sendMsgAsync(clientMessage);
+                    if (returnType == Iterator.class) return selectHandler().sendStream(clientMessage);
+                    if (BaseStream.class.isAssignableFrom(returnType))//服务端对Stream结果同样分块发送
+                        return selectHandler().sendStream(clientMessage).asStream(returnType);
+                    return selectHandler().sendMsg(clientMessage);//caller park，unpark后返回结果
                 });
     }
 
+    /**
+     * @param serivceClass 服务要实现的接口
+     * @param methodName 要调用的方法名
+     * @param args 方法的参数
+     * @description: 异步调用，发送后立即返回一个future，caller不会park，一个线程就可以同时发起大量调用。
+     * 按方法名和实参在接口中找到要调用的方法，以它的签名来标识方法，找不到时由服务端按方法名和实参查找。
+     * future由netty线程在收到结果时结束：成功时为调用结果，服务端调用失败时为InvokeFailedException，
+     * 超时（重试用完）时为InvokeTimeOutException。
+     * 注意：不带Async后缀的回调（thenApply等）会在netty线程中执行，不要在其中阻塞。
+     * @return: java.util.concurrent.CompletableFuture<java.lang.Object>
+     * @author: 杜科
+     * @date: 2020/3/11
+     */
+    public static CompletableFuture<Object> invokeAsync(final Class<?> serivceClass, String methodName,
+                                                        Object... args) {
+        if (!isInit) throw new RuntimeException("还没有init");
+        return selectHandler().sendMsgAsync(newMessage(serivceClass, methodName, args));
+    }
+
+    /**
+     * @param serivceClass 服务要实现的接口
+     * @param methodName 要调用的方法名
+     * @param args 方法的参数
+     * @description: 流式调用，服务端的实现方法返回Iterator或Stream，结果分块发送，
+     * 返回的迭代器每消费一块才允许服务端再发一块，结果再大两端也只缓冲有限的块数。
+     * 不再需要剩余的结果时应调用close
+     * @return: com.github.AllenDuke.clientService.ClientStream<T>
+     * @author: 杜科
+     * @date: 2020/3/29
+     */
+    public static <T> ClientStream<T> invokeStream(final Class<?> serivceClass, String methodName, Object... args) {
+        if (!isInit) throw new RuntimeException("还没有init");
+        return selectHandler().sendStream(newMessage(serivceClass, methodName, args));
+    }
+
+    /**
+     * @description: 按方法名和实参在接口中找到要调用的方法，以它的签名的哈希生成消息，找不到时哈希为0
+     * @param serivceClass 服务要实现的接口
+     * @param methodName 要调用的方法名
+     * @param args 方法的参数
+     * @return: com.github.AllenDuke.dto.ClientMessage
+     * @author: 杜科
+     * @date: 2020/3/28
+     */
+    static ClientMessage newMessage(Class<?> serivceClass, String methodName, Object[] args) {
+        Method[] methods = methodsOf(serivceClass);
+        Method method = MethodSignature.resolve(methods, methodName, args);
+        return new ClientMessage(implName(serivceClass), methodName, method == null ? 0 : methodHash(method), args);
+    }
+
+    //接口的所有方法，第一次使用接口时把方法的参数和返回类型登记到反序列化白名单
+    private static Method[] methodsOf(Class<?> serivceClass) {
+        Method[] methods = interfaceMethods.get(serivceClass);
+        if (methods == null) {
+            methods = serivceClass.getMethods();
+            for (Method method : methods) TypeWhitelist.register(method);
+            interfaceMethods.put(serivceClass, methods);
+        }
+        return methods;
+    }
+
+    /**
+     * @description: 创建一个批量调用，add若干调用后send，所有调用放在一帧中发出，结果也在一帧中返回，
+     * 适合一次扇出大量小调用的场景，省去每个调用单独成帧、单独往返的开销
+     * @return: com.github.AllenDuke.clientService.Batch
+     * @author: 杜科
+     * @date: 2020/3/28
+     */
+    public static Batch newBatch() {
+        if (!isInit) throw new RuntimeException("还没有init");
+        return new Batch();
+    }
+
     public static void shutdown(){
-        group.shutdownGracefully();
-        shutdown=true;//按netty线程组的关闭策略先让其完成相关工作，再去检查超时观察者
-        if(timeout!=-1){//结束超时观察者
-            clientHandler.getWaiterQueue()//传入当前时间是为了在最后一次检查中不误报超时信息
-                    .add(new TimeOutEvent(new ClientMessage(),System.currentTimeMillis()));
+        for (ServerNode node : nodes) {
+            if(node.getPool()!=null) node.getPool().close();
         }
+        group.shutdownGracefully();
+        if(timer!=null) timer.stop();//停止时间轮，未到期的定时任务不再触发
     }
 }
@@ -1,29 +1,48 @@
 package com.github.AllenDuke.clientService;
 
-import com.alibaba.fastjson.JSON;
+import com.github.AllenDuke.dto.BatchClientMessage;
+import com.github.AllenDuke.dto.BatchServerMessage;
 import com.github.AllenDuke.dto.ClientMessage;
+import com.github.AllenDuke.dto.HandshakeMessage;
 import com.github.AllenDuke.dto.ServerMessage;
+import com.github.AllenDuke.dto.StreamChunk;
+import com.github.AllenDuke.dto.StreamCredit;
 import com.github.AllenDuke.event.TimeOutEvent;
+import com.github.AllenDuke.exception.InvokeFailedException;
+import com.github.AllenDuke.exception.InvokeTimeOutException;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author 杜科
- * @description rpc消费者的业务处理器
- * 所有caller的消息经此发出，因此caller在此park。
- * 当业务处理器收到服务端的结果时，会根据结果中的线程id unpark相应的caller。
+ * @description rpc消费者的业务处理器，一个处理器对应一条连接
+ * 所有caller的消息经此发出，同步调用的caller在此park。
+ * 每条消息发出前由本连接分配一个单调递增的请求id，并以请求id在待决表中登记一个PendingCall，
+ * 当业务处理器收到服务端的结果时，会根据结果中的请求id找到对应的调用，唤醒caller或结束future。
+ * caller线程登记，netty线程和超时观察者查找、移出，待决表是无锁的并发表，移出由CAS保证只有一方成功。
+ * 因为不再以线程id区分调用，同一线程可以同时有多个调用在途（异步、流水线），线程池中的线程被复用也不受影响。
+ * 连接建立后服务端会发来握手消息公布方法表，之后发出的请求只带方法id，不再带类名和方法名。
+ * 批量调用中的每个调用也各自分配请求id、各自登记，只是放在一帧中发出，结果也在一帧中返回。
+ * 流式调用不进入待决表（结果不止一个），以请求id登记在streams中，收到最后一块或连接断开时移出。
+ * 发送前先检查背压：连接不可写（发送缓冲区超过高水位）或在途调用达到maxInFlight时，
+ * 按配置让caller阻塞等待或立即失败，服务端处理慢时不会在发送缓冲区中无限积压。
  *
- * 这里多处用到HashMap而不是ConcurrentHashMap是因为，虽然存在并发行为，但彼此只操作自己的数据并没有影响他人。
  * 要发送的信息会封装成任务，加入到eventLoop的TaskQueue
- * 这里的超时机制采用的是：超时向原目的主机重发原信息（后续会将超时请求重新路由到别的主机，另有详细信息）
+ * 这里的超时机制采用的是：每个调用登记到时间轮上，到期且仍未返回时交由监听器处理，
+ * 默认的监听器进行重试，配置了多个节点时，重试会被转移到另一个健康节点的连接上，
+ * 避免向已经过载或停顿（如GC）的节点继续施压，只有一个节点时向原连接重发原信息。
+ * 服务端过载时会立即拒绝请求，此时不等待超时：有其他节点时把调用转移过去（只转移一次），否则立即失败
  * @contact AllenDuke@163.com
  * @since 2020/2/11
  */
@@ -32,35 +51,42 @@ public class RPCClientHandler extends ChannelInboundHandlerAdapter {
 
     private ChannelHandlerContext context;
 
-    //调用者线程在各自的条件上等待，并发性能差，要先抢夺锁
-//    private final Map<Long, Condition> waitingThreadMap=new HashMap();
+    //连接的服务端节点，用于记录延迟
+    private ServerNode node;
 
-    //callerId与caller，park后加入，unpark后删除
-    private final Map<Long, Thread> waiterMap=new HashMap<>();
+    //服务端公布的方法表，收到握手消息前为null
+    private volatile MethodTable methodTable;
 
-    //各caller的当前调用结果（这里一直会缓存上一次的结果）
-    private final Map<Long,Object> resultMap=new HashMap<>();
+    //请求id生成器，连接内单调递增
+    private final AtomicLong requestIdGenerator=new AtomicLong(0);
 
-    //各caller的当前条用次数，park后加入，unpark后删除
-    private final Map<Long,Long> countMap=new HashMap<>();
+    //待决表，请求id与调用，发送前加入，收到结果或最终超时后删除
+    private final PendingCallTable pendingTable=new PendingCallTable(RPCClient.maxPending);
 
-    //超时观察队列
-    private BlockingQueue<TimeOutEvent> waiterQueue;
-    {if(RPCClient.timeout!=-1)waiterQueue=new LinkedBlockingQueue<>();}
+    //正在接收的流式结果，请求id与流
+    private final Map<Long, ClientStream<?>> streams=new ConcurrentHashMap<>();
 
-    //超时观察者，原子变量避免并发创建
-    private final AtomicReference<Thread> watcher=new AtomicReference<>();
+    //背压时阻塞的caller在此等待
+    private final Object admission=new Object();
 
-    //与服务器的连接创建后，就会被调用, 这个方法是第一个被调用
+    //正在等待的caller数，为0时移出调用不需要加锁唤醒
+    private final AtomicInteger waiters=new AtomicInteger(0);
+
+    //加入pipeline时就会被调用，早于连接建立，保证connect返回后context一定可用
     @Override
-    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
         this.context=ctx;
     }
 
+    //连接是否可用
+    public boolean isActive(){
+        return context!=null&&context.channel().isActive();
+    }
+
     /**
-     * @description: netty线程收到信息后调用，解析信息，
-     * 若正确，唤醒相应caller，从waiterMap，countMap删除相应的thread和count
-     * 若错误，抛弃信息，callers继续等待
+     * @description: netty线程收到信息后调用，
+     * 若在待决表中找到对应的调用，将其移出并设置结果（唤醒caller或结束future）
+     * 若找不到，说明是已经超时的历史信息，抛弃；批量结果逐个按此处理
      * @param ctx 当前channelHandler所在的环境（重量级对象）
      * @param msg netty线程读取到的信息
      * @return: void
@@ -69,27 +95,66 @@ public class RPCClientHandler extends ChannelInboundHandlerAdapter {
      */
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        log.info("收到信息："+msg+"，准备解码，返回结果");
-        ServerMessage serverMessage=null;
-        try{
-            serverMessage=JSON.parseObject((String) msg, ServerMessage.class);
-        }catch (Exception e){
-            log.error("解析异常，收到错误的信息，即将抛弃，callers继续等待",e);
+        if(msg instanceof HandshakeMessage){
+            methodTable=new MethodTable((HandshakeMessage) msg);
+            log.info("收到服务端的方法表："+msg);
+            return;
+        }
+        if(msg instanceof StreamChunk){
+            StreamChunk chunk=(StreamChunk) msg;
+            ClientStream<?> stream=chunk.isLast() ? streams.remove(chunk.getRequestId()) : streams.get(chunk.getRequestId());
+            if(stream!=null) stream.onChunk(chunk);//找不到说明已经取消
+            return;
+        }
+        if(msg instanceof BatchServerMessage){
+            for (ServerMessage serverMessage : ((BatchServerMessage) msg).getResults()) onResponse(serverMessage);
             return;
         }
-        long callerId=serverMessage.getCallerId();
-        long count=serverMessage.getCount();
-        if(countMap.containsKey(callerId)&&countMap.get(callerId).equals(count)){//是本次调用结果
-            if(serverMessage.isSucceed()) log.info("收到发送给线程——"+callerId+" 的成功信息，即将返回结果");
-            else log.error("线程——"+callerId+" 第 "+count+" 次调用失败，"
-                    +serverMessage.getReselut()+" 即将返回错误提示");
-            resultMap.put(callerId,serverMessage.getReselut());
-            LockSupport.unpark(waiterMap.get(callerId));
-            waiterMap.remove(callerId);
-            countMap.remove(callerId);
-        }else {
-            log.info("收到发送给线程——"+callerId+" 的历史信息，即将即将抛弃，继续等待");//上次调用超时
+        onResponse((ServerMessage) msg);//已由解码器反序列化，解析异常的信息已被抛弃
+    }
+
+    //找到结果对应的调用，设置结果
+    private void onResponse(ServerMessage serverMessage){
+        log.info("收到信息："+serverMessage+"，准备返回结果");
+        long requestId=serverMessage.getRequestId();
+        PendingCall call=pendingTable.remove(requestId);
+        if(call!=null) wakeWaiters();
+        if(call==null&&!streams.isEmpty()){//流式调用失败，或服务端的实现方法返回的不是流
+            ClientStream<?> stream=streams.remove(requestId);
+            if(stream!=null){
+                stream.onResult(serverMessage.isSucceed(),serverMessage.getReselut());
+                return;
+            }
+        }
+        if(call==null){
+            log.info("收到请求——"+requestId+" 的历史信息，即将抛弃");//已经超时
+            return;
         }
+        if(!serverMessage.isSucceed()&&ServerMessage.OVERLOADED.equals(serverMessage.getReselut())&&redirect(call)) return;
+        if(serverMessage.isSucceed()) log.info("收到请求——"+requestId+" 的成功信息，即将返回结果");
+        else log.error("请求——"+requestId+" 调用失败，"+serverMessage.getReselut()+" 即将返回错误提示");
+        call.complete(serverMessage.isSucceed(),serverMessage.getReselut());
+        if(node!=null) node.recordLatency(System.nanoTime()-call.getStartNanos());
+    }
+
+    //连接断开，待决的调用和正在接收的流式结果都以失败结束，不必等到超时（没有超时机制时会永远等下去）
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (PendingCall call : pendingTable.drain()) call.fail(new InvokeFailedException("连接已断开"));
+        for (Long requestId : streams.keySet()) {
+            ClientStream<?> stream=streams.remove(requestId);
+            if(stream!=null) stream.onResult(false,"连接已断开，流式结果中断");
+        }
+        wakeWaiters();//等待发送的caller不必再等
+        super.channelInactive(ctx);
+    }
+
+    //可写性变化，恢复可写时唤醒等待的caller
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if(ctx.channel().isWritable()) wakeWaiters();
+        else log.warn("连接 "+node+" 的发送缓冲区超过高水位，暂停发送");
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
@@ -98,92 +163,332 @@ public class RPCClientHandler extends ChannelInboundHandlerAdapter {
     }
 
     /**
-     * @description: caller调用后，记录相关信息（waiterMap,countMap等），在此阻塞(超时等待结果)，
-     * 由netty线程发送信息。
+     * @description: caller调用后，分配请求id并登记到待决表，在此阻塞(超时等待结果)，
+     * 由netty线程发送信息。背压时按配置阻塞或立即失败
      * @param clientMessage 要发送的消息
-     * @return: void
+     * @return: java.lang.Object 调用结果，当超时或异常时，将返回字符串提示
+     * @throws InvokeFailedException 背压策略为failFast时连接繁忙，连接已断开，或发送失败
+     * @throws InvokeTimeOutException 背压策略为block时在超时时间内没能发送
      * @author: 杜科
      * @date: 2020/2/27
      */
-    public void sendMsg(ClientMessage clientMessage) throws InterruptedException {
-        long callerId=clientMessage.getCallerId();
-        waiterMap.put(callerId,Thread.currentThread());//caller加入map当中
-        countMap.put(callerId,clientMessage.getCount());
-        if(RPCClient.timeout!=-1) doWatch(clientMessage);//进行超时观察
-        context.writeAndFlush(JSON.toJSONString(clientMessage));//加到任务队列，netty线程发送json文本
-        log.info("线程——"+callerId+"，要发送信息"+clientMessage);
-        LockSupport.park();
+    public Object sendMsg(ClientMessage clientMessage) {
+        admit();
+        long requestId=requestIdGenerator.incrementAndGet();
+        PendingCall call=PendingCall.sync(this,requestId,clientMessage,deadline());
+        send(call);
+        return call.await();//caller park
     }
 
     /**
-     * @description: 对要发送的信息生成一个事件，进行超时观察
-     * @param message 要发送的信息
-     * @return: void
+     * @description: 异步调用，登记到待决表后发送，caller不阻塞，直接返回future。
+     * 背压策略为block时仍可能阻塞在发送前，不能发送时future以异常结束
+     * @param clientMessage 要发送的消息
+     * @return: java.util.concurrent.CompletableFuture<java.lang.Object>
+     * @author: 杜科
+     * @date: 2020/3/11
+     */
+    public CompletableFuture<Object> sendMsgAsync(ClientMessage clientMessage){
+        try {
+            admit();
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        long requestId=requestIdGenerator.incrementAndGet();
+        PendingCall call=PendingCall.async(this,requestId,clientMessage,deadline());
+        send(call);
+        return call.getFuture();
+    }
+
+    /**
+     * @description: 批量异步调用，每个调用分配请求id、登记到待决表后，放在一帧中发送。
+     * 超时重试时各个调用单独重发。整批只检查一次背压，在途调用数可能因此超出上限一批
+     * @param clientMessages 要发送的消息
+     * @return: java.util.List<java.util.concurrent.CompletableFuture<java.lang.Object>> 与消息一一对应的future
      * @author: 杜科
-     * @date: 2020/3/4
+     * @date: 2020/3/28
      */
-    private void doWatch(ClientMessage message){
-        if(watcher.get()==null){//这里不直接cas是因为cas是一条cpu指令，能省则省。
-            Thread t1=new Watcher();
-            t1.setDaemon(true);
-            t1.setName("watcher");//事实上可以像waiterQueue一样在成员代码块中初始化
-            if(watcher.compareAndSet(null,t1)) t1.start();
+    public List<CompletableFuture<Object>> sendBatchAsync(ClientMessage[] clientMessages){
+        List<CompletableFuture<Object>> futures=new ArrayList<>(clientMessages.length);
+        try {
+            admit();
+        } catch (RuntimeException e) {
+            for (int i = 0; i < clientMessages.length; i++) futures.add(failed(e));
+            return futures;
+        }
+        for (ClientMessage clientMessage : clientMessages) {
+            PendingCall call=PendingCall.async(this,requestIdGenerator.incrementAndGet(),clientMessage,deadline());
+            register(call);
+            futures.add(call.getFuture());
         }
-        waiterQueue.add(new TimeOutEvent(message,System.currentTimeMillis()));//加入超时观察队列
-    }
-
-    //超时观察线程
-    private class Watcher extends Thread{
-        @Override
-        public void run() {
-            while(!RPCClient.shutdown){//每次循环检查是否已经关闭，同样会让出cpu
-                try {
-                    TimeOutEvent head=waiterQueue.take();//阻塞获取头
-                    if(System.currentTimeMillis()-head.getCreateTime() <RPCClient.timeout)
-                        waiterQueue.add(head);//如果没有超时再加回到队尾
-                    else{//如果超时了
-                        long callerId=head.getMessage().getCallerId();
-                        long count=head.getMessage().getCount();
-                        if(countMap.get(callerId)==null
-                                || countMap.get(callerId)!=count) continue;//实际上已经成功返回
-                       RPCClient.listener.handle(head);//发生超时，调用注册的监听器的handle方法
+        long[] requestIds=new long[clientMessages.length];
+        for (int i = 0; i < requestIds.length; i++) requestIds[i]=clientMessages[i].getRequestId();
+        context.writeAndFlush(new BatchClientMessage(clientMessages)).addListener((ChannelFutureListener) future -> {
+            if(!future.isSuccess()) for (long requestId : requestIds) failPending(requestId,future.cause());
+        });
+        log.info("批量发送 "+clientMessages.length+" 个请求");
+        return futures;
+    }
+
+    /**
+     * @description: 流式调用，登记后发送，返回的迭代器在消费时才等待服务端分块发来的结果。
+     * 流式调用不进行超时重试，迭代器每取一块最多等待一个超时时间。
+     * 流式调用不计入在途调用数，但连接不可写时同样按背压策略处理
+     * @param clientMessage 要发送的消息
+     * @return: com.github.AllenDuke.clientService.ClientStream<T>
+     * @author: 杜科
+     * @date: 2020/3/29
+     */
+    public <T> ClientStream<T> sendStream(ClientMessage clientMessage){
+        admit();
+        long requestId=requestIdGenerator.incrementAndGet();
+        ClientStream<T> stream=new ClientStream<>(this,requestId);
+        clientMessage.setRequestId(requestId);
+        clientMessage.setMethodId(methodIdOf(clientMessage));
+        streams.put(requestId,stream);
+        context.writeAndFlush(clientMessage).addListener((ChannelFutureListener) future -> {
+            if(future.isSuccess()) return;
+            log.error("请求——"+requestId+" 发送失败",future.cause());
+            ClientStream<?> failed=streams.remove(requestId);
+            if(failed!=null) failed.onResult(false,"发送失败："+future.cause());
+        });
+        log.info("请求——"+requestId+"，要发送流式调用"+clientMessage);
+        return stream;
+    }
+
+    //消费了流式结果，归还credit
+    void sendCredit(long requestId, int credit){
+        context.writeAndFlush(new StreamCredit(requestId,credit));
+    }
+
+    //取消流式调用，服务端已经发完时不需要通知
+    void cancelStream(long requestId){
+        if(streams.remove(requestId)!=null) context.writeAndFlush(new StreamCredit(requestId,0));
+    }
+
+    //连接可写且在途调用没有达到上限
+    private boolean isAdmissible(){
+        return (RPCClient.maxInFlight<=0||pendingTable.size()<RPCClient.maxInFlight)&&context.channel().isWritable();
+    }
+
+    /**
+     * @description: 发送前检查背压，可以发送时直接返回。
+     * 策略为failFast时立即失败；为block时caller在此等待调用返回或连接恢复可写，最多等待一个超时时间。
+     * netty线程（例如在future的回调中发起调用）不能等待，否则没有线程去读结果和写数据，总是立即失败
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/30
+     */
+    private void admit(){
+        if(isAdmissible()) return;
+        if(!isActive()) throw new InvokeFailedException("连接已断开");
+        if(RPCClient.failFast||context.executor().inEventLoop()) throw new InvokeFailedException("连接繁忙，请求被拒绝");
+        long deadline=deadline();
+        waiters.incrementAndGet();//先增加再检查，移出调用的一方看到waiters为0时，这里一定能看到移出后的在途调用数
+        try {
+            synchronized (admission){
+                while (!isAdmissible()){
+                    if(!isActive()) throw new InvokeFailedException("连接已断开");
+                    if(deadline==Long.MAX_VALUE){
+                        admission.wait();
+                        continue;
                     }
-                } catch (Exception e) {//cathch包含可能在listen.handle抛出的异常
-                    e.printStackTrace();
+                    long left=deadline-System.currentTimeMillis();
+                    if(left<=0) throw new InvokeTimeOutException(PendingCall.TIME_OUT_RESULT);
+                    admission.wait(left);
                 }
             }
-            log.info("超时观察者退出");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvokeFailedException("等待发送时被中断");
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    //有调用移出或连接恢复可写后，唤醒等待的caller重新检查
+    private void wakeWaiters(){
+        if(waiters.get()==0) return;
+        synchronized (admission){
+            admission.notifyAll();
         }
     }
 
+    private static CompletableFuture<Object> failed(Throwable cause){
+        CompletableFuture<Object> future=new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    //截止时间，没有超时机制时为Long.MAX_VALUE
+    private long deadline(){
+        return RPCClient.timeout==-1 ? Long.MAX_VALUE : System.currentTimeMillis()+RPCClient.timeout;
+    }
+
+    //登记后发送，登记一定要在发送之前，否则结果可能先于登记到达
+    private void send(PendingCall call){
+        register(call);
+        ClientMessage clientMessage=call.getMessage();
+        context.writeAndFlush(clientMessage).addListener(failOnError(call.getRequestId()));//加到任务队列，netty线程编码后发送
+        log.info("请求——"+call.getRequestId()+"，要发送信息"+clientMessage);
+    }
+
+    //同步调用的caller被中断，不再等待结果
+    void abandon(PendingCall call){
+        if(pendingTable.remove(call.getRequestId())!=null) wakeWaiters();
+        call.fail(new InvokeFailedException("等待结果时被中断"));
+    }
+
+    //发送失败（编码异常，如超过最大帧长度、序列化失败；或连接已关闭）时立即结束调用，不必等到超时
+    private ChannelFutureListener failOnError(long requestId){
+        return future -> {
+            if(!future.isSuccess()) failPending(requestId,future.cause());
+        };
+    }
+
+    //把调用移出待决表，以InvokeFailedException结束，已经结束（结果已返回或已超时）时忽略
+    private void failPending(long requestId, Throwable cause){
+        PendingCall call=pendingTable.remove(requestId);
+        if(call==null) return;
+        wakeWaiters();
+        log.error("请求——"+requestId+" 发送失败",cause);
+        call.fail(new InvokeFailedException("发送失败："+cause,cause));
+    }
+
+    //设置请求id和方法id，登记到待决表并进行超时观察
+    private void register(PendingCall call){
+        ClientMessage clientMessage=call.getMessage();
+        clientMessage.setRequestId(call.getRequestId());
+        clientMessage.setMethodId(methodIdOf(clientMessage));
+        pendingTable.put(call);
+        if(RPCClient.timeout!=-1) watch(call);//进行超时观察
+    }
+
     /**
-     * @description: 由unpark后的caller调用，返回对应的调用结果
-     * caller应该注意 ClassCastException，因为当超时或异常时，将返回字符串提示。
-     * @param callerId 线程id
-     * @return: java.lang.Object
+     * @description: 时间轮到期后由时间轮线程调用，调用仍未返回时交由注册的监听器处理
+     * @param call 到期的调用
+     * @return: void
      * @author: 杜科
-     * @date: 2020/2/28
+     * @date: 2020/3/14
      */
-    public Object getResult(long callerId){
-        return resultMap.get(callerId);
+    protected void onTimeOut(PendingCall call){
+        if(pendingTable.get(call.getRequestId())!=call) return;//实际上已经成功返回
+        if(node!=null) node.recordTimeOut(RPCClient.timeout);
+        try {
+            RPCClient.listener.handle(call.getEvent());//发生超时，调用注册的监听器的handle方法
+        } catch (Exception e) {//包含可能在listener.handle抛出的异常，不能让时间轮线程退出
+            log.error("超时监听器处理异常",e);
+        }
     }
 
-    //用于在主线程关闭netty线程组时，主线程往超时观察队列中加入一个节点，让超时观察者苏醒一次去检查关闭标志，进而结束
-    protected BlockingQueue<TimeOutEvent> getWaiterQueue(){return this.waiterQueue;}
+    /**
+     * @description: 重试，尽量选择另一个节点的连接，把调用从本连接的待决表移出后交给它重新发送；
+     * 没有其他可用节点时，重新计算截止时间、重新登记定时任务后在本连接重发原信息
+     * @param event 超时事件
+     * @return: boolean 调用是否仍在待决表中（false说明结果已经返回，不需要重试）
+     * @author: 杜科
+     * @date: 2020/3/14
+     */
+    public boolean retry(TimeOutEvent event){
+        long requestId=event.getMessage().getRequestId();
+        PendingCall call=pendingTable.get(requestId);
+        if(call==null) return false;
+        RPCClientHandler target=this;
+        if(node!=null){
+            try {
+                target=RPCClient.selectHandler(node);
+            } catch (RuntimeException e) {//没有可用的节点，仍在本连接重试
+                log.error("请求——"+requestId+" 重试时选择节点失败",e);
+            }
+        }
+        if(target.node==node){
+            call.setDeadline(deadline());
+            watch(call);
+            context.writeAndFlush(call.getMessage()).addListener(failOnError(requestId));//重发信息
+            return true;
+        }
+        if(pendingTable.remove(requestId)==null) return false;//结果刚好返回
+        wakeWaiters();
+        target.takeOver(call);
+        log.error("请求——"+requestId+" 已从 "+node+" 转移到 "+target.node+"，新的请求id为 "+call.getRequestId());
+        return true;
+    }
+
+    /**
+     * @description: 服务端过载拒绝了调用（此时已移出待决表），暂停本节点，
+     * 尽量选择另一个节点的连接把调用转移过去，每个调用只转移一次
+     * @param call 被拒绝的调用
+     * @return: boolean 是否已转移，false时应以失败结束调用
+     * @author: 杜科
+     * @date: 2020/3/31
+     */
+    private boolean redirect(PendingCall call){
+        if(node==null) return false;
+        node.recordOverload();
+        if(RPCClient.nodes.length==1||!call.redirect()) return false;
+        RPCClientHandler target;
+        try {
+            target=RPCClient.selectHandler(node);
+        } catch (RuntimeException e) {
+            return false;
+        }
+        if(target.node==node||!target.isActive()) return false;
+        long requestId=call.getRequestId();
+        call.cancelTimeout();
+        target.takeOver(call);
+        log.error("请求——"+requestId+" 被 "+node+" 拒绝，已转移到 "+target.node+"，新的请求id为 "+call.getRequestId());
+        return true;
+    }
+
+    //接管从别的连接转移过来的调用，分配新的请求id后登记并发送
+    private void takeOver(PendingCall call){
+        call.reroute(this,requestIdGenerator.incrementAndGet());
+        call.getMessage().setMethodId(methodIdOf(call.getMessage()));//方法id只在本连接有效
+        call.setDeadline(deadline());
+        pendingTable.put(call);
+        if(RPCClient.timeout!=-1) watch(call);//过载转移时可能没有超时机制
+        context.writeAndFlush(call.getMessage()).addListener(failOnError(call.getRequestId()));
+    }
+
+    //按本连接的方法表得到方法id，还没有方法表时为0
+    private int methodIdOf(ClientMessage clientMessage){
+        MethodTable table=methodTable;
+        return table==null ? 0 : table.idOf(clientMessage.getClassName(),clientMessage.getMethodHash());
+    }
+
+    //登记到时间轮
+    private void watch(PendingCall call){
+        call.setTimeout(RPCClient.timer.newTimeout(call,RPCClient.timeout,TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * @description: 最终超时，把调用移出待决表，返回超时提示
+     * @param requestId 请求id
+     * @return: boolean 调用是否仍在待决表中（false说明结果已经返回）
+     * @author: 杜科
+     * @date: 2020/3/12
+     */
+    public boolean timeOut(long requestId){
+        PendingCall call=pendingTable.remove(requestId);
+        if(call==null) return false;
+        wakeWaiters();
+        call.timeOut();
+        return true;
+    }
 
     public ChannelHandlerContext getContext() {
         return context;
     }
 
-    public Map<Long, Thread> getWaiterMap() {
-        return waiterMap;
+    public ServerNode getNode() {
+        return node;
     }
 
-    public Map<Long, Object> getResultMap() {
-        return resultMap;
+    public void setNode(ServerNode node) {
+        this.node = node;
     }
 
-    public Map<Long, Long> getCountMap() {
-        return countMap;
+    public PendingCallTable getPendingTable() {
+        return pendingTable;
     }
 }
@@ -0,0 +1,19 @@
+package com.github.AllenDuke.clientService;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 杜科
+ * @description 轮询
+ * @contact AllenDuke@163.com
+ * @since 2020/3/16
+ */
+public class RoundRobinLoadBalance extends AbstractLoadBalance {
+
+    private final AtomicInteger index = new AtomicInteger(0);
+
+    @Override
+    protected int doSelect(ServerNode[] nodes) {
+        return (index.getAndIncrement() & Integer.MAX_VALUE) % nodes.length;
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.AllenDuke.clientService;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 杜科
+ * @description 集群中的一个服务端节点，持有到它的连接池，并记录负载均衡需要的数据：
+ * 权重、在途调用数、观察到的调用延迟（指数加权移动平均，EWMA）。
+ * 延迟在收到结果时由netty线程记录，超时也会以超时时长记为一次延迟，使变慢的节点很快被避开。
+ * 连续超时达到阈值的节点会被暂停一段时间，暂停期间负载均衡和超时重试都会优先选择其他节点，
+ * 暂停结束后重新参与选择，再次超时则继续暂停，收到任何结果都会清除连续超时计数。
+ * 节点因过载拒绝请求时也会被短暂暂停。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/16
+ */
+public class ServerNode {
+
+    //EWMA的平滑系数为 1/2^EWMA_SHIFT，即新样本占1/8
+    private static final int EWMA_SHIFT = 3;
+
+    //连续超时多少次后暂停节点
+    private static final int SUSPEND_THRESHOLD = 3;
+
+    //节点拒绝请求（过载）后暂停的时长，毫秒
+    private static final long OVERLOAD_BACKOFF_MILLIS = 100;
+
+    private final String host;
+
+    private final int port;
+
+    private final int weight;
+
+    private ConnectionPool pool;
+
+    //延迟的移动平均，纳秒，0表示还没有样本
+    private volatile long ewmaNanos = 0;
+
+    //连续超时次数
+    private final AtomicInteger timeOuts = new AtomicInteger(0);
+
+    //暂停到何时，毫秒
+    private volatile long suspendUntil = 0;
+
+    //因过载暂停到何时，毫秒
+    private volatile long overloadedUntil = 0;
+
+    public ServerNode(String host, int port, int weight) {
+        this.host = host;
+        this.port = port;
+        this.weight = weight;
+    }
+
+    /**
+     * @description: 解析rpc.yml中的节点地址，格式为 host:port 或 host:port:weight，权重缺省为1
+     * @param address 节点地址
+     * @return: com.github.AllenDuke.clientService.ServerNode
+     * @author: 杜科
+     * @date: 2020/3/16
+     */
+    public static ServerNode parse(String address) {
+        String[] parts = address.trim().split(":");
+        if (parts.length < 2 || parts.length > 3) throw new IllegalArgumentException("错误的节点地址：" + address);
+        int weight = parts.length == 3 ? Integer.parseInt(parts[2]) : 1;
+        return new ServerNode(parts[0], Integer.parseInt(parts[1]), weight);
+    }
+
+    /**
+     * @description: 记录一次调用的延迟，多个netty线程可能同时记录，偶尔丢失一个样本不影响均值，所以不加锁
+     * @param nanos 延迟，纳秒
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/16
+     */
+    public void recordLatency(long nanos) {
+        updateEwma(nanos);
+        if (timeOuts.get() != 0) timeOuts.set(0);//节点已恢复响应
+    }
+
+    /**
+     * @description: 记录一次超时，以超时时长记为一次延迟，连续超时达到阈值时暂停节点
+     * @param timeoutMillis 超时时长，同时也是暂停的时长
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/17
+     */
+    public void recordTimeOut(long timeoutMillis) {
+        updateEwma(timeoutMillis * 1000_000L);
+        if (timeOuts.incrementAndGet() >= SUSPEND_THRESHOLD)
+            suspendUntil = System.currentTimeMillis() + timeoutMillis;
+    }
+
+    //节点因过载拒绝了请求，短暂暂停，让负载均衡先选择其他节点，给它时间排空队列
+    public void recordOverload() {
+        overloadedUntil = System.currentTimeMillis() + OVERLOAD_BACKOFF_MILLIS;
+    }
+
+    private void updateEwma(long nanos) {
+        long old = ewmaNanos;
+        ewmaNanos = old == 0 ? nanos : old + ((nanos - old) >> EWMA_SHIFT);
+    }
+
+    //是否有可用的连接
+    public boolean isAvailable() {
+        return pool != null && pool.isAvailable();
+    }
+
+    //是否健康：有可用的连接，而且没有因为连续超时或过载被暂停
+    public boolean isHealthy() {
+        if (!isAvailable()) return false;
+        long now = System.currentTimeMillis();
+        if (now < overloadedUntil) return false;
+        return timeOuts.get() < SUSPEND_THRESHOLD || now >= suspendUntil;
+    }
+
+    //在途调用数
+    public int getActive() {
+        return pool == null ? 0 : pool.pendingCount();
+    }
+
+    public long getEwmaNanos() {
+        return ewmaNanos;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
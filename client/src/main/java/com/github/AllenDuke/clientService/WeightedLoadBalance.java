@@ -0,0 +1,26 @@
+package com.github.AllenDuke.clientService;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author 杜科
+ * @description 按权重随机，节点被选中的概率与权重成正比，权重在rpc.yml的节点地址中配置（host:port:weight）。
+ * 随机而不是加权轮询，不需要在节点间共享可变状态，也就不需要加锁。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/16
+ */
+public class WeightedLoadBalance extends AbstractLoadBalance {
+
+    @Override
+    protected int doSelect(ServerNode[] nodes) {
+        int total = 0;
+        for (ServerNode node : nodes) total += node.getWeight();
+        if (total <= 0) return ThreadLocalRandom.current().nextInt(nodes.length);
+        int offset = ThreadLocalRandom.current().nextInt(total);
+        for (int i = 0; i < nodes.length; i++) {
+            offset -= nodes[i].getWeight();
+            if (offset < 0) return i;
+        }
+        return nodes.length - 1;
+    }
+}
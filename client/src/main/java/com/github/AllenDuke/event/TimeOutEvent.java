@@ -1,11 +1,12 @@
 package com.github.AllenDuke.event;
 
 import com.github.AllenDuke.clientService.RPCClient;
+import com.github.AllenDuke.clientService.RPCClientHandler;
 import com.github.AllenDuke.dto.ClientMessage;
 
 /**
  * @author 杜科
- * @description 超时事件，记录每个caller发起第count次调用的时间
+ * @description 超时事件，记录每个请求发起的时间
  * @contact AllenDuke@163.com
  * @since 2020/3/4
  */
@@ -14,6 +15,7 @@ public class TimeOutEvent {
     ClientMessage message;//应尽量缩减message的信息，避免不必要的传输
     long createTime;
     int retryNum;
+    RPCClientHandler handler;//发出请求的连接，用于重试
 
     public TimeOutEvent(ClientMessage message, long createTime) {
         this.message=message;
@@ -21,6 +23,11 @@ public class TimeOutEvent {
         this.retryNum= RPCClient.retryNum;
     }
 
+    public TimeOutEvent(ClientMessage message, long createTime, RPCClientHandler handler) {
+        this(message, createTime);
+        this.handler = handler;
+    }
+
     public ClientMessage getMessage() {
         return message;
     }
@@ -37,6 +44,14 @@ public class TimeOutEvent {
         this.createTime = createTime;
     }
 
+    public RPCClientHandler getHandler() {
+        return handler;
+    }
+
+    public void setHandler(RPCClientHandler handler) {
+        this.handler = handler;
+    }
+
     public int getRetryNum() {
         return retryNum;
     }
@@ -47,13 +62,12 @@ public class TimeOutEvent {
 
     @Override
     public int hashCode() {
-        return (int) message.getCallerId()+(int) message.getCount();
+        return Long.hashCode(message.getRequestId());
     }
 
     @Override
     public boolean equals(Object obj) {
         TimeOutEvent t=(TimeOutEvent)obj;
-        return this.message.getCallerId()==t.message.getCallerId()
-                &&this.message.getCount()==t.message.getCount();
+        return this.message.getRequestId()==t.message.getRequestId();
     }
 }
@@ -0,0 +1,16 @@
+package com.github.AllenDuke.exception;
+
+/**
+ * @author 杜科
+ * @description 服务端调用失败，异步调用时以此结束future，message为服务端返回的错误提示
+ * @contact AllenDuke@163.com
+ * @since 2020/3/11
+ */
+public class InvokeFailedException extends RuntimeException {
+
+    public InvokeFailedException(){}
+
+    public InvokeFailedException(String s){super(s);}
+
+    public InvokeFailedException(String s, Throwable cause){super(s, cause);}
+}
@@ -0,0 +1,178 @@
+package com.github.AllenDuke.clientService;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 杜科
+ * @description 待决表的测试。请求id取容量的整数倍，全部落在同一个起始槽位上，
+ * 探测窗口很快被占满，大部分调用要走ConcurrentHashMap的退路，槽位和退路上的并发登记、移出、清空都要覆盖到：
+ * 每个调用只能被一个线程移出，不能丢失，也不能被移出两次，结束后在途调用数归零。
+ * @contact AllenDuke@163.com
+ * @since 2020/4/5
+ */
+public class PendingCallTableTest {
+
+    private static final int CAPACITY = 16;
+
+    private static final int THREADS = 4;
+
+    private static final int PER_THREAD = 5000;
+
+    //第i个请求id，都落在0号槽位上
+    private static long collidingId(int i) {
+        return (long) i * CAPACITY;
+    }
+
+    private static PendingCall call(long requestId) {
+        return PendingCall.async(null, requestId, null, Long.MAX_VALUE);
+    }
+
+    //所有任务在同一时刻开始，全部结束后返回各自的结果
+    private static <T> List<T> runConcurrently(List<Callable<T>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(tasks.size());
+            List<Future<T>> futures = new ArrayList<>();
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    return task.call();
+                }));
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) results.add(future.get(60, TimeUnit.SECONDS));
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void putGetRemove() {
+        PendingCallTable table = new PendingCallTable(CAPACITY);
+        List<PendingCall> calls = new ArrayList<>();
+        for (int i = 0; i < CAPACITY * 3; i++) {//一半以上要走退路
+            PendingCall call = call(collidingId(i));
+            calls.add(call);
+            table.put(call);
+        }
+        assertEquals(calls.size(), table.size());
+        for (PendingCall call : calls) assertSame(call, table.get(call.getRequestId()));
+        assertNull(table.get(collidingId(calls.size())));
+
+        for (PendingCall call : calls) {
+            assertSame(call, table.remove(call.getRequestId()));
+            assertNull(table.remove(call.getRequestId()));
+            assertFalse(table.contains(call.getRequestId()));
+        }
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void concurrentPutAndRemoveWithCollidingIds() throws Exception {
+        PendingCallTable table = new PendingCallTable(CAPACITY);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int from = t * PER_THREAD;
+            tasks.add(() -> {
+                int missing = 0;
+                for (int i = from; i < from + PER_THREAD; i++) {
+                    PendingCall call = call(collidingId(i));
+                    table.put(call);
+                    if (table.get(call.getRequestId()) != call) missing++;
+                    //每隔一个移出上一个，槽位和退路上同时有登记和移出
+                    if ((i & 1) == 1 && table.remove(collidingId(i - 1)) == null) missing++;
+                }
+                for (int i = from + 1; i < from + PER_THREAD; i += 2) {
+                    if (table.remove(collidingId(i)) == null) missing++;
+                }
+                return missing;
+            });
+        }
+
+        for (int missing : runConcurrently(tasks)) assertEquals(0, missing);
+        assertEquals(0, table.size());
+        for (int i = 0; i < THREADS * PER_THREAD; i++) assertNull(table.get(collidingId(i)));
+    }
+
+    @Test
+    public void concurrentRemoveOfSameIdsHandsEachCallOut() throws Exception {
+        PendingCallTable table = new PendingCallTable(CAPACITY);
+        int total = THREADS * PER_THREAD;
+        for (int i = 0; i < total; i++) table.put(call(collidingId(i)));
+
+        ConcurrentHashMap<Long, Boolean> removed = new ConcurrentHashMap<>();
+        AtomicInteger duplicates = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final boolean reverse = (t & 1) == 1;
+            tasks.add(() -> {//所有线程移出同一批id，方向不同以制造竞争
+                for (int k = 0; k < total; k++) {
+                    long requestId = collidingId(reverse ? total - 1 - k : k);
+                    PendingCall call = table.remove(requestId);
+                    if (call == null) continue;
+                    assertEquals(requestId, call.getRequestId());
+                    if (removed.put(requestId, Boolean.TRUE) != null) duplicates.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        runConcurrently(tasks);
+
+        assertEquals(0, duplicates.get());
+        assertEquals(total, removed.size());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void drainRacesWithRemove() throws Exception {
+        PendingCallTable table = new PendingCallTable(CAPACITY);
+        int total = THREADS * PER_THREAD;
+        for (int i = 0; i < total; i++) table.put(call(collidingId(i)));
+
+        List<Callable<List<PendingCall>>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int from = t * PER_THREAD;
+            tasks.add(() -> {
+                List<PendingCall> calls = new ArrayList<>();
+                for (int i = from; i < from + PER_THREAD; i++) {
+                    PendingCall call = table.remove(collidingId(i));
+                    if (call != null) calls.add(call);
+                }
+                return calls;
+            });
+        }
+        tasks.add(table::drain);
+        tasks.add(table::drain);
+
+        ConcurrentHashMap<Long, Boolean> seen = new ConcurrentHashMap<>();
+        for (List<PendingCall> calls : runConcurrently(tasks)) {
+            for (PendingCall call : calls) assertNull(seen.put(call.getRequestId(), Boolean.TRUE), "被移出了两次");
+        }
+        assertEquals(total, seen.size());
+        assertEquals(0, table.size());
+        assertTrue(table.drain().isEmpty());
+    }
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        PendingCallTable table = new PendingCallTable(10);
+        for (int i = 0; i < 100; i++) table.put(call(i));//10会取整为16，id连续时也有大量进入退路
+        assertEquals(100, table.size());
+        assertEquals(100, table.drain().size());
+        assertEquals(0, table.size());
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.AllenDuke.codec;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 杜科
+ * @description 合并flush，把多条消息的flush合并成一次写socket，减少系统调用。
+ * 每次调用都writeAndFlush时，一条消息一次系统调用，调用频率高时系统调用本身成了主要开销。
+ * 放在pipeline的最前面（最靠近socket），拦截所有flush：
+ * 1.读的过程中（服务端在netty线程中直接处理请求时），flush推迟到本轮读结束（channelReadComplete）时一起做；
+ * 2.其他时候（业务线程、调用者线程提交的写），第一次flush不立即执行，而是往netty线程的任务队列末尾加一个flush任务，
+ * 此前已排队的写都会在这次flush中一起发出，负载低时队列中没有别的任务，flush任务马上执行，不增加延迟；
+ * 3.积压的flush达到maxMessages次，或者距第一次被推迟的flush超过maxDelay时立即flush，限制合并的数量和延迟。
+ * 所有方法都在channel的netty线程中执行，状态不需要同步；每个channel一个实例，不能共享。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/27
+ */
+public class FlushCoalescingHandler extends ChannelDuplexHandler {
+
+    public static final int DEFAULT_MAX_MESSAGES = 64;//默认最多合并的flush次数
+
+    public static final long DEFAULT_MAX_DELAY_MICROS = 200;//默认最长推迟的时间，微秒
+
+    private final int maxMessages;
+
+    private final long maxDelayNanos;
+
+    private int pending;//被推迟的flush次数
+
+    private long firstPendingNanos;//第一次被推迟的flush的时间
+
+    private boolean readInProgress;
+
+    private boolean scheduled;//是否已经提交了flush任务
+
+    private ChannelHandlerContext ctx;
+
+    private final Runnable flushTask = () -> {
+        scheduled = false;
+        if (pending > 0 && !readInProgress) flushNow(ctx);
+    };
+
+    public FlushCoalescingHandler() {
+        this(DEFAULT_MAX_MESSAGES, DEFAULT_MAX_DELAY_MICROS);
+    }
+
+    /**
+     * @param maxMessages 最多合并的flush次数
+     * @param maxDelayMicros 最长推迟的时间，微秒
+     */
+    public FlushCoalescingHandler(int maxMessages, long maxDelayMicros) {
+        if (maxMessages <= 0) throw new IllegalArgumentException("maxMessages必须大于0");
+        this.maxMessages = maxMessages;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        long now = System.nanoTime();
+        if (pending++ == 0) firstPendingNanos = now;
+        if (pending >= maxMessages || now - firstPendingNanos >= maxDelayNanos) {
+            flushNow(ctx);
+            return;
+        }
+        if (readInProgress || scheduled) return;//读结束时或已提交的flush任务会一起flush
+        scheduled = true;
+        ctx.channel().eventLoop().execute(flushTask);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        readInProgress = false;
+        if (pending > 0) flushNow(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    //不可写时尽快把积压的数据交给socket，可写后也不要让数据滞留
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (pending > 0) flushNow(ctx);
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        if (pending > 0) flushNow(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        if (pending > 0) flushNow(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        if (pending > 0) flushNow(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (pending > 0) flushNow(ctx);
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        pending = 0;
+        ctx.flush();
+    }
+}
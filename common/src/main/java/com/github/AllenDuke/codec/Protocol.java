@@ -0,0 +1,117 @@
+package com.github.AllenDuke.codec;
+
+import com.github.AllenDuke.dto.BatchClientMessage;
+import com.github.AllenDuke.dto.BatchServerMessage;
+import com.github.AllenDuke.dto.ClientMessage;
+import com.github.AllenDuke.dto.HandshakeMessage;
+import com.github.AllenDuke.dto.ServerMessage;
+import com.github.AllenDuke.dto.StreamChunk;
+import com.github.AllenDuke.dto.StreamCredit;
+import com.github.AllenDuke.exception.SerializeException;
+
+/**
+ * @author 杜科
+ * @description 帧格式常量，每一帧由帧头和消息体组成：
+ * +--------+---------+-----------+-----------+--------------+----------------+
+ * | 魔数 1B | 版本 1B | 序列化器 1B | 消息类型 1B | 消息体长度 4B |   消息体 length  |
+ * +--------+---------+-----------+-----------+--------------+----------------+
+ * 解码时直接读取长度字段即可切出一帧，不需要像分隔符那样逐字节扫描，消息体中出现什么字符都不影响。
+ * 帧头带上序列化器编号，接收方按编号反序列化，因此两端的序列化器配置不一致也能互通。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/8
+ */
+public class Protocol {
+
+    //魔数，用于快速识别非本协议的连接
+    public static final byte MAGIC = (byte) 0xDC;
+
+    //协议版本，帧格式变化时递增
+    public static final byte VERSION = 2;
+
+    //序列化器编号在帧中的偏移量
+    public static final int SERIALIZER_OFFSET = 2;
+
+    //消息类型在帧中的偏移量
+    public static final int TYPE_OFFSET = 3;
+
+    //长度字段在帧中的偏移量
+    public static final int LENGTH_FIELD_OFFSET = 4;
+
+    //长度字段的字节数
+    public static final int LENGTH_FIELD_LENGTH = 4;
+
+    //帧头长度
+    public static final int HEADER_LENGTH = LENGTH_FIELD_OFFSET + LENGTH_FIELD_LENGTH;
+
+    //默认的最大帧长度，16M
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    //消息类型：客户端的调用请求
+    public static final byte TYPE_REQUEST = 1;
+
+    //消息类型：服务端的调用结果
+    public static final byte TYPE_RESPONSE = 2;
+
+    //消息类型：服务端在连接建立后公布的方法表
+    public static final byte TYPE_HANDSHAKE = 3;
+
+    //消息类型：客户端的批量请求
+    public static final byte TYPE_BATCH_REQUEST = 4;
+
+    //消息类型：服务端的批量结果
+    public static final byte TYPE_BATCH_RESPONSE = 5;
+
+    //消息类型：服务端流式结果的一块
+    public static final byte TYPE_STREAM_CHUNK = 6;
+
+    //消息类型：客户端归还的流式结果credit
+    public static final byte TYPE_STREAM_CREDIT = 7;
+
+    /**
+     * @description: 得到消息对应的类型
+     * @param msg 要发送的消息
+     * @return: byte 消息类型
+     * @author: 杜科
+     * @date: 2020/3/10
+     */
+    public static byte typeOf(Object msg) {
+        if (msg instanceof ClientMessage) return TYPE_REQUEST;
+        if (msg instanceof ServerMessage) return TYPE_RESPONSE;
+        if (msg instanceof HandshakeMessage) return TYPE_HANDSHAKE;
+        if (msg instanceof BatchClientMessage) return TYPE_BATCH_REQUEST;
+        if (msg instanceof BatchServerMessage) return TYPE_BATCH_RESPONSE;
+        if (msg instanceof StreamChunk) return TYPE_STREAM_CHUNK;
+        if (msg instanceof StreamCredit) return TYPE_STREAM_CREDIT;
+        throw new SerializeException("不支持的消息：" + msg.getClass().getName());
+    }
+
+    /**
+     * @description: 得到消息类型对应的类，用于反序列化
+     * @param type 帧头中的消息类型
+     * @return: java.lang.Class<?>
+     * @author: 杜科
+     * @date: 2020/3/10
+     */
+    public static Class<?> classOf(byte type) {
+        switch (type) {
+            case TYPE_REQUEST:
+                return ClientMessage.class;
+            case TYPE_RESPONSE:
+                return ServerMessage.class;
+            case TYPE_HANDSHAKE:
+                return HandshakeMessage.class;
+            case TYPE_BATCH_REQUEST:
+                return BatchClientMessage.class;
+            case TYPE_BATCH_RESPONSE:
+                return BatchServerMessage.class;
+            case TYPE_STREAM_CHUNK:
+                return StreamChunk.class;
+            case TYPE_STREAM_CREDIT:
+                return StreamCredit.class;
+            default:
+                throw new SerializeException("未知的消息类型：" + type);
+        }
+    }
+
+    private Protocol(){}
+}
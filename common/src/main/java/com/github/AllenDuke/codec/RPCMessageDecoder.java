@@ -0,0 +1,62 @@
+package com.github.AllenDuke.codec;
+
+import com.github.AllenDuke.serializer.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author 杜科
+ * @description 消息解码器，先校验魔数和版本，再按长度字段切出一帧，直接从帧中反序列化出消息往后传播。
+ * 每一帧只读一次帧头，与消息体的大小无关；帧是累积缓冲区的切片，反序列化直接读切片，不会拷贝成String或byte[]。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/10
+ */
+@Slf4j
+public class RPCMessageDecoder extends LengthFieldBasedFrameDecoder {
+
+    public RPCMessageDecoder() {
+        this(Protocol.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * @param maxFrameLength 最大帧长度（含帧头），超过将抛出TooLongFrameException
+     */
+    public RPCMessageDecoder(int maxFrameLength) {
+        super(maxFrameLength, Protocol.LENGTH_FIELD_OFFSET, Protocol.LENGTH_FIELD_LENGTH, 0, 0);
+    }
+
+    /**
+     * @description: 在切帧前校验魔数与版本，不符合说明对端不是本协议或者数据已经错乱，此时抛出异常，由业务处理器关闭连接
+     * 切出一帧后按帧头中的序列化器和消息类型反序列化，反序列化失败只抛弃这一帧，不影响后续的帧
+     * @param ctx 当前channelHandler所在的环境
+     * @param in 累积的输入
+     * @return: java.lang.Object 反序列化后的消息，数据不足一帧时为null
+     * @author: 杜科
+     * @date: 2020/3/10
+     */
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        if (in.readableBytes() < Protocol.SERIALIZER_OFFSET) return null;
+        int readerIndex = in.readerIndex();
+        byte magic = in.getByte(readerIndex);
+        if (magic != Protocol.MAGIC) throw new CorruptedFrameException("错误的魔数：" + magic);
+        byte version = in.getByte(readerIndex + 1);
+        if (version != Protocol.VERSION) throw new CorruptedFrameException("不支持的协议版本：" + version);
+        ByteBuf frame = (ByteBuf) super.decode(ctx, in);
+        if (frame == null) return null;
+        try {
+            byte serializerCode = frame.getByte(frame.readerIndex() + Protocol.SERIALIZER_OFFSET);
+            byte type = frame.getByte(frame.readerIndex() + Protocol.TYPE_OFFSET);
+            frame.skipBytes(Protocol.HEADER_LENGTH);
+            return SerializerFactory.getSerializer(serializerCode).deserialize(frame, Protocol.classOf(type));
+        } catch (Exception e) {
+            log.error("解析异常，收到错误的信息，即将抛弃", e);
+            return null;
+        } finally {
+            frame.release();//切片共享累积缓冲区，用完即释放
+        }
+    }
+}
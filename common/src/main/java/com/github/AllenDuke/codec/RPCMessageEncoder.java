@@ -0,0 +1,49 @@
+package com.github.AllenDuke.codec;
+
+import com.github.AllenDuke.serializer.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+/**
+ * @author 杜科
+ * @description 消息编码器，把ClientMessage、ServerMessage直接序列化到池化的直接内存中。
+ * 先写帧头并为长度字段占位，消息体写完后再回填长度，整个过程没有中间的String和byte[]。
+ * 无状态，可以被多个channel共享。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/10
+ */
+@ChannelHandler.Sharable
+public class RPCMessageEncoder extends MessageToByteEncoder<Object> {
+
+    private final Serializer serializer;
+
+    private final int maxFrameLength;
+
+    public RPCMessageEncoder(Serializer serializer) {
+        this(serializer, Protocol.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public RPCMessageEncoder(Serializer serializer, int maxFrameLength) {
+        super(true);//优先使用直接内存，写入socket时不需要再拷贝一次
+        this.serializer = serializer;
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        int begin = out.writerIndex();
+        out.writeByte(Protocol.MAGIC);
+        out.writeByte(Protocol.VERSION);
+        out.writeByte(serializer.getCode());
+        out.writeByte(Protocol.typeOf(msg));
+        out.writeInt(0);//长度占位
+        serializer.serialize(msg, out);
+        int length = out.writerIndex() - begin - Protocol.HEADER_LENGTH;
+        if (length + Protocol.HEADER_LENGTH > maxFrameLength)//对端将无法解码，在发送前就拒绝
+            throw new EncoderException("消息体长度 " + length + " 超过最大帧长度 " + maxFrameLength);
+        out.setInt(begin + Protocol.LENGTH_FIELD_OFFSET, length);
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.AllenDuke.dto;
+
+import java.util.Arrays;
+
+/**
+ * @author 杜科
+ * @description 批量请求，把多个调用放在一帧中发送。
+ * 每个调用仍是一个完整的ClientMessage，有自己的请求id，客户端以请求id各自登记、各自超时重试，
+ * 服务端执行完全部调用后以一个BatchServerMessage返回所有结果。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/28
+ */
+public class BatchClientMessage {
+
+    private ClientMessage[] calls;//批量中的各个调用
+
+    //要有无参构造供反序列化调用
+    public BatchClientMessage(){}
+
+    public BatchClientMessage(ClientMessage[] calls) {
+        this.calls = calls;
+    }
+
+    public ClientMessage[] getCalls() {
+        return calls;
+    }
+
+    public void setCalls(ClientMessage[] calls) {
+        this.calls = calls;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchClientMessage{" +
+                "calls=" + Arrays.toString(calls) +
+                '}';
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.AllenDuke.dto;
+
+import java.util.Arrays;
+
+/**
+ * @author 杜科
+ * @description 批量结果，与BatchClientMessage对应，results[i]是第i个调用的结果，带有该调用的请求id
+ * @contact AllenDuke@163.com
+ * @since 2020/3/28
+ */
+public class BatchServerMessage {
+
+    private ServerMessage[] results;//各个调用的结果
+
+    //要有无参构造供反序列化调用
+    public BatchServerMessage(){}
+
+    public BatchServerMessage(ServerMessage[] results) {
+        this.results = results;
+    }
+
+    public ServerMessage[] getResults() {
+        return results;
+    }
+
+    public void setResults(ServerMessage[] results) {
+        this.results = results;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchServerMessage{" +
+                "results=" + Arrays.toString(results) +
+                '}';
+    }
+}
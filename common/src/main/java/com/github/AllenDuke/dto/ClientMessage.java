@@ -2,7 +2,6 @@ package com.github.AllenDuke.dto;
 
 
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author 杜科
@@ -12,33 +11,33 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class ClientMessage {
 
-    //记录构造次数，原子变量防止并发构造
-    private static AtomicLong sum=new AtomicLong(0);
-
-    private long callerId;//调用者线程id
+    private long requestId;//请求id，由所在连接单调递增地分配，服务端原样带回，用于找到对应的调用
     private String className;//要调用的类名
     private String methodName;//要调用的方法名
+    private int methodHash;//方法签名的哈希，0表示没有，此时服务端按方法名和实参查找方法
+    private int methodId;//握手时服务端分配的方法id，0表示没有，有方法id时类名、方法名和签名哈希都不需要发送
     private Object[] args;//方法的参数
-    private long count;//当前调用者的第count次调用
 
-    //要有无参构造共fastjson反序列化调用，
-    // 否则服务方将调用下面有参构造使得count++（不会再调用setter，使得count一致，消息过期）
+    //要有无参构造供反序列化调用
     public ClientMessage(){}
 
-    public ClientMessage(long callerId, String className, String methodName, Object[] args) {
-        this.callerId = callerId;
+    public ClientMessage(String className, String methodName, Object[] args) {
         this.className = className;
         this.methodName = methodName;
         this.args = args;
-        this.count=sum.getAndIncrement();
     }
 
-    public long getCallerId() {
-        return callerId;
+    public ClientMessage(String className, String methodName, int methodHash, Object[] args) {
+        this(className, methodName, args);
+        this.methodHash = methodHash;
+    }
+
+    public long getRequestId() {
+        return requestId;
     }
 
-    public void setCallerId(long callerId) {
-        this.callerId = callerId;
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
     }
 
     public String getClassName() {
@@ -57,30 +56,39 @@ public class ClientMessage {
         this.methodName = methodName;
     }
 
-    public Object[] getArgs() {
-        return args;
+    public int getMethodHash() {
+        return methodHash;
     }
 
-    public void setArgs(Object[] args) {
-        this.args = args;
+    public void setMethodHash(int methodHash) {
+        this.methodHash = methodHash;
     }
 
-    public long getCount() {
-        return count;
+    public int getMethodId() {
+        return methodId;
     }
 
-    public void setCount(long count) {
-        this.count = count;
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
+    }
+
+    public Object[] getArgs() {
+        return args;
+    }
+
+    public void setArgs(Object[] args) {
+        this.args = args;
     }
 
     @Override
     public String toString() {
         return "ClientMessage{" +
-                "callerId=" + callerId +
+                "requestId=" + requestId +
                 ", className='" + className + '\'' +
                 ", methodName='" + methodName + '\'' +
+                ", methodHash=" + methodHash +
+                ", methodId=" + methodId +
                 ", args=" + Arrays.toString(args) +
-                ", count=" + count +
                 '}';
     }
 }
@@ -0,0 +1,49 @@
+package com.github.AllenDuke.dto;
+
+import java.util.Arrays;
+
+/**
+ * @author 杜科
+ * @description 握手消息，连接建立后服务端发给客户端，公布导出的方法表。
+ * 第i个方法（方法id为i+1）由服务名serviceNames[i]和方法签名的哈希methodHashes[i]确定，
+ * 客户端收到后，之后的请求只需带上方法id，不必再发送类名和方法名。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/21
+ */
+public class HandshakeMessage {
+
+    private String[] serviceNames;//每个方法所属的服务名
+    private int[] methodHashes;//每个方法签名的哈希
+
+    //要有无参构造供反序列化调用
+    public HandshakeMessage(){}
+
+    public HandshakeMessage(String[] serviceNames, int[] methodHashes) {
+        this.serviceNames = serviceNames;
+        this.methodHashes = methodHashes;
+    }
+
+    public String[] getServiceNames() {
+        return serviceNames;
+    }
+
+    public void setServiceNames(String[] serviceNames) {
+        this.serviceNames = serviceNames;
+    }
+
+    public int[] getMethodHashes() {
+        return methodHashes;
+    }
+
+    public void setMethodHashes(int[] methodHashes) {
+        this.methodHashes = methodHashes;
+    }
+
+    @Override
+    public String toString() {
+        return "HandshakeMessage{" +
+                "serviceNames=" + Arrays.toString(serviceNames) +
+                ", methodHashes=" + Arrays.toString(methodHashes) +
+                '}';
+    }
+}
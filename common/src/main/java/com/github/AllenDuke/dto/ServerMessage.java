@@ -8,16 +8,17 @@ package com.github.AllenDuke.dto;
  */
 public class ServerMessage {
 
-    private long callerId;//调用者线程id
-    private long count;//当前调用者的第n次调用
+    //服务端过载时的失败提示，客户端据此立即失败或转移到其他节点，而不是等到超时
+    public static final String OVERLOADED="服务繁忙，请求被拒绝";
+
+    private long requestId;//对应请求的id
     private boolean isSucceed=true;//调用成功标志
     private Object reselut;//调用结果，有可能为失败字符串提示
 
     public ServerMessage(){}
 
-    public ServerMessage(long callerId, long count, boolean isSucceed, Object reselut) {
-        this.callerId = callerId;
-        this.count = count;
+    public ServerMessage(long requestId, boolean isSucceed, Object reselut) {
+        this.requestId = requestId;
         this.isSucceed = isSucceed;
         this.reselut = reselut;
     }
@@ -30,20 +31,12 @@ public class ServerMessage {
         isSucceed = succeed;
     }
 
-    public long getCount() {
-        return count;
-    }
-
-    public void setCount(long count) {
-        this.count = count;
-    }
-
-    public long getCallerId() {
-        return callerId;
+    public long getRequestId() {
+        return requestId;
     }
 
-    public void setCallerId(long callerId) {
-        this.callerId = callerId;
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
     }
 
     public Object getReselut() {
@@ -57,8 +50,7 @@ public class ServerMessage {
     @Override
     public String toString() {
         return "ServerMessage{" +
-                "callerId=" + callerId +
-                ", count=" + count +
+                "requestId=" + requestId +
                 ", isSucceed=" + isSucceed +
                 ", reselut=" + reselut +
                 '}';
@@ -0,0 +1,72 @@
+package com.github.AllenDuke.dto;
+
+import java.util.Arrays;
+
+/**
+ * @author 杜科
+ * @description 流式结果的一块，服务端的实现方法返回Iterator或Stream时，结果被切成若干块依次发送。
+ * 每发送一块消耗客户端的一个credit，客户端每消费一块归还一个credit（StreamCredit），
+ * 因此在途的块数不会超过服务端的窗口，两端的内存都与结果总大小无关。
+ * 最后一块的last为true；迭代中出错时发送带有error的一块，同样是最后一块。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/29
+ */
+public class StreamChunk {
+
+    private long requestId;//对应请求的id
+    private Object[] items;//本块中的元素
+    private boolean last;//是否是最后一块
+    private String error;//出错时的提示，正常时为null
+
+    //要有无参构造供反序列化调用
+    public StreamChunk(){}
+
+    public StreamChunk(long requestId, Object[] items, boolean last, String error) {
+        this.requestId = requestId;
+        this.items = items;
+        this.last = last;
+        this.error = error;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
+    public Object[] getItems() {
+        return items;
+    }
+
+    public void setItems(Object[] items) {
+        this.items = items;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    public void setLast(boolean last) {
+        this.last = last;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamChunk{" +
+                "requestId=" + requestId +
+                ", items=" + Arrays.toString(items) +
+                ", last=" + last +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.AllenDuke.dto;
+
+/**
+ * @author 杜科
+ * @description 客户端归还给服务端的credit，允许服务端再发送credit块流式结果；credit不大于0表示取消，服务端停止发送并关闭迭代器
+ * @contact AllenDuke@163.com
+ * @since 2020/3/29
+ */
+public class StreamCredit {
+
+    private long requestId;//对应请求的id
+    private int credit;//归还的块数，不大于0表示取消
+
+    //要有无参构造供反序列化调用
+    public StreamCredit(){}
+
+    public StreamCredit(long requestId, int credit) {
+        this.requestId = requestId;
+        this.credit = credit;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
+    public int getCredit() {
+        return credit;
+    }
+
+    public void setCredit(int credit) {
+        this.credit = credit;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamCredit{" +
+                "requestId=" + requestId +
+                ", credit=" + credit +
+                '}';
+    }
+}
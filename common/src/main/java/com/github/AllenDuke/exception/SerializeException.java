@@ -0,0 +1,16 @@
+package com.github.AllenDuke.exception;
+
+/**
+ * @author 杜科
+ * @description 序列化或反序列化失败
+ * @contact AllenDuke@163.com
+ * @since 2020/3/9
+ */
+public class SerializeException extends RuntimeException {
+
+    public SerializeException(){}
+
+    public SerializeException(String s){super(s);}
+
+    public SerializeException(String s, Throwable cause){super(s, cause);}
+}
@@ -0,0 +1,17 @@
+package com.github.AllenDuke.myThreadPoolService;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @author 杜科
+ * @description 线程池拒绝策略，抛出RejectedExecutionException，由提交任务的一方处理，
+ * 例如服务端立即通知客户端服务繁忙，而不是让客户端等到超时
+ * @contact AllenDuke@163.com
+ * @since 2020/3/31
+ */
+public class AbortRejectHandler implements RejectHandler {
+    @Override
+    public void reject(Runnable task) {
+        throw new RejectedExecutionException("队列已满，已达最大线程数，无空闲线程，拒绝当前任务");
+    }
+}
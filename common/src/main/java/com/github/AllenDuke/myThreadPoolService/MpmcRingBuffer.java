@@ -0,0 +1,127 @@
+package com.github.AllenDuke.myThreadPoolService;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * @author 杜科
+ * @description 有界的多生产者多消费者无锁环形队列（Dmitry Vyukov的bounded MPMC queue），用作线程池的任务队列。
+ * 数组在创建时一次性分配，入队出队不再创建链表节点；每个槽位有一个序号，
+ * 生产者在序号等于入队位置时CAS入队位置占据槽位，写入任务后把序号加1，通知消费者可以取走；
+ * 消费者在序号等于出队位置+1时CAS出队位置占据槽位，取走任务后把序号加上容量，通知下一圈的生产者可以写入。
+ * 容量检查就是序号比较，一次入队或出队只有一次CAS，不再需要另外的原子计数器。
+ * 入队位置和出队位置被生产者和消费者分别频繁修改，用填充隔开，避免伪共享。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/22
+ */
+public class MpmcRingBuffer<E> extends MpmcRingBufferPad2 {
+
+    private static final AtomicLongFieldUpdater<MpmcRingBufferEnqueuePos> ENQUEUE_POS =
+            AtomicLongFieldUpdater.newUpdater(MpmcRingBufferEnqueuePos.class, "enqueuePos");
+
+    private static final AtomicLongFieldUpdater<MpmcRingBufferDequeuePos> DEQUEUE_POS =
+            AtomicLongFieldUpdater.newUpdater(MpmcRingBufferDequeuePos.class, "dequeuePos");
+
+    private final int mask;
+
+    private final Object[] buffer;
+
+    //每个槽位的序号
+    private final AtomicLongArray sequences;
+
+    /**
+     * @param capacity 容量，会向上取整为2的幂，至少为2
+     */
+    public MpmcRingBuffer(int capacity) {
+        int n = 2;
+        while (n < capacity) n <<= 1;
+        this.mask = n - 1;
+        this.buffer = new Object[n];
+        this.sequences = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++) sequences.set(i, i);
+    }
+
+    /**
+     * @description: 入队
+     * @param e 元素，不能为null
+     * @return: boolean 队列已满时为false
+     * @author: 杜科
+     * @date: 2020/3/22
+     */
+    public boolean offer(E e) {
+        long pos = enqueuePos;
+        int index;
+        for (; ; ) {
+            index = (int) pos & mask;
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (ENQUEUE_POS.compareAndSet(this, pos, pos + 1)) break;
+                pos = enqueuePos;
+            } else if (dif < 0) return false;//上一圈的元素还没有被取走，队列已满
+            else pos = enqueuePos;//被别的生产者抢先了
+        }
+        buffer[index] = e;
+        sequences.lazySet(index, pos + 1);//有序写，消费者读到新序号时一定能读到元素
+        return true;
+    }
+
+    /**
+     * @description: 出队
+     * @return: E 队列为空时为null
+     * @author: 杜科
+     * @date: 2020/3/22
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = dequeuePos;
+        int index;
+        for (; ; ) {
+            index = (int) pos & mask;
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (DEQUEUE_POS.compareAndSet(this, pos, pos + 1)) break;
+                pos = dequeuePos;
+            } else if (dif < 0) return null;//元素还没有写入，队列为空
+            else pos = dequeuePos;//被别的消费者抢先了
+        }
+        E e = (E) buffer[index];
+        buffer[index] = null;
+        sequences.lazySet(index, pos + mask + 1);
+        return e;
+    }
+
+    //当前元素个数，并发时只是近似值
+    public int size() {
+        long size = enqueuePos - dequeuePos;
+        return size < 0 ? 0 : (int) Math.min(size, mask + 1);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
+
+//以下几个类只用于按继承顺序排列字段，使入队位置和出队位置各自独占缓存行
+abstract class MpmcRingBufferPad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class MpmcRingBufferEnqueuePos extends MpmcRingBufferPad0 {
+    volatile long enqueuePos;
+}
+
+abstract class MpmcRingBufferPad1 extends MpmcRingBufferEnqueuePos {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class MpmcRingBufferDequeuePos extends MpmcRingBufferPad1 {
+    volatile long dequeuePos;
+}
+
+abstract class MpmcRingBufferPad2 extends MpmcRingBufferDequeuePos {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
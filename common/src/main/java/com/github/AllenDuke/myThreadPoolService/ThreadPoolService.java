@@ -3,7 +3,9 @@ package com.github.AllenDuke.myThreadPoolService;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author 杜科
@@ -16,6 +18,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 非核心线程记录和空闲时间有关的数据，拉取成功重置。
  * 非核心线程空闲一定时间后消亡，消亡后要从空闲非核心线程中移除，否则会造成任务丢失。
  * shutDonw后拒绝任务，所有存活线程在消费完任务队列后消亡。
+ * 空闲线程有两种等待方式：自旋（默认，分配任务后立即感知，但空闲时每个线程占满一个核）
+ * 和park（空闲时不消耗cpu，主线程分配任务后unpark，仍然是直接交付，只多了一次唤醒）。
  * @contact AllenDuke@163.com
  * @since 2019/11/30
  */
@@ -24,9 +28,10 @@ public class ThreadPoolService {
     private int coreSize = 2;//核心线程数
     private int maxSize = 4;//最大线程数
     private long keepAlive = 2 * 1000;//空闲时间，单位毫秒
-    private boolean isShutDown = false;
+    private volatile boolean isShutDown = false;//volatile确保park或自旋中的线程能看到
+    private final boolean park;//空闲线程是否park，false为自旋
     /**
-     * ThreadPoolExecutor用的是BlockingQueue，这里用的ConcurrentLinkedQueue
+     * ThreadPoolExecutor用的是BlockingQueue，这里用的是无锁的有界环形队列MpmcRingBuffer（最初是ConcurrentLinkedQueue）
      * 二者设计差别在于:
      * 前者：
      * 如果核心线程执行完当前任务后，尝试阻塞地从阻塞队列中拉取任务。
@@ -45,14 +50,35 @@ public class ThreadPoolService {
      * 前者适合任务偶发提交（有时间隔挺久的）的情况
      * 后者适合任务频繁提交（即自旋时间少）的情况
      */
-    private ConcurrentLinkedQueue<Runnable> taskQueue = new ConcurrentLinkedQueue();//并发任务队列，控制并发拉取
-    private int queueCapacity = 10;//任务队列容量
-    private AtomicInteger queueSize = new AtomicInteger(0);//当前任务队列大小，原子变量控制并发提交
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;//默认任务队列容量
+    //并发任务队列，预先分配的有界环形数组，入队出队各一次CAS，满了入队失败，不需要另外的计数器控制容量
+    private final MpmcRingBuffer<Runnable> taskQueue;
     private RejectHandler rejectHandler = new MyRejectHandler();//拒绝策略
     private ConcurrentLinkedQueue<CoreThread> freeCorePool = new ConcurrentLinkedQueue();//空闲核心线程队列
     private ConcurrentLinkedQueue<NonCoreThread> freeNonCorePool = new ConcurrentLinkedQueue();//空闲非核心线程队列
     private AtomicInteger curSize = new AtomicInteger(2);//当前线程数，原子变量控制并发新建和消亡
 
+    //空闲线程自旋等待分配任务
+    public ThreadPoolService() {
+        this(false);
+    }
+
+    /**
+     * @param park 空闲线程是否park，true时空闲线程不消耗cpu，分配任务时唤醒
+     */
+    public ThreadPoolService(boolean park) {
+        this(DEFAULT_QUEUE_CAPACITY, park);
+    }
+
+    /**
+     * @param queueCapacity 任务队列容量，会向上取整为2的幂
+     * @param park 空闲线程是否park，true时空闲线程不消耗cpu，分配任务时唤醒
+     */
+    public ThreadPoolService(int queueCapacity, boolean park) {
+        this.taskQueue = new MpmcRingBuffer<>(queueCapacity);
+        this.park = park;
+    }
+
     //初始化空闲核心线程队列
     {
         CoreThread core0 = new CoreThread();
@@ -104,6 +130,7 @@ public class ThreadPoolService {
         if (core != null) {
             core.setTask(task);
             if (core.getState() == Thread.State.NEW) core.start();
+            else if (park) LockSupport.unpark(core);//先设置任务再唤醒，即使线程还没park也不会错过
             return true;
         } else return false;
 
@@ -111,23 +138,17 @@ public class ThreadPoolService {
 
     /**
      * @param task
-     * @description: 尝试把任务加入队列，用原子变量控制
+     * @description: 尝试把任务加入队列，队列已满时失败
      * @return: boolean true为添加成功，false为添加失败
      * @author: 杜科
      * @date: 2020/2/10
      */
     private boolean waitInQueue(Runnable task) {
-        //如果+1后仍在容量内，则添加成功
-        if (queueSize.incrementAndGet() <= queueCapacity) {
-            taskQueue.add(task);
+        if (taskQueue.offer(task)) {
             log.info("任务 "+task+" 加入队列");
             return true;
         }
-        //+1后超出容量，则添加失败，需要把-1
-        else {
-            queueSize.decrementAndGet();
-            return false;
-        }
+        return false;
     }
 
     /**
@@ -142,6 +163,7 @@ public class ThreadPoolService {
         if (nonCore != null) {
             nonCore.setTask(task);
             if (nonCore.getState() == Thread.State.NEW) nonCore.start();
+            else if (park) LockSupport.unpark(nonCore);
             return true;
         } else return false;
     }
@@ -151,9 +173,18 @@ public class ThreadPoolService {
         rejectHandler.reject(task);
     }
 
-    //关闭线程池，拒绝任务，线程消费完任务队列后消亡
+    //设置拒绝策略，缺省为MyRejectHandler（抛弃任务）
+    public void setRejectHandler(RejectHandler rejectHandler) {
+        this.rejectHandler = rejectHandler;
+    }
+
+    //关闭线程池，拒绝任务，线程消费完任务队列后消亡，park中的空闲线程要唤醒
     public void shutDown() {
         isShutDown = true;
+        if (park) {
+            for (CoreThread core : freeCorePool) LockSupport.unpark(core);
+            for (NonCoreThread nonCore : freeNonCorePool) LockSupport.unpark(nonCore);
+        }
         log.info("线程池关闭");
     }
 
@@ -177,10 +208,12 @@ public class ThreadPoolService {
             Runnable task = taskQueue.poll();
             if (task != null) {
                 setTask(task);
-                queueSize.decrementAndGet();
             } else {//失败说明任务队列已为空
                 isFree = true;
                 freeCorePool.add(this);
+                //进入空闲队列前，主线程可能因为找不到空闲线程而把任务加入了队列，
+                //此时若还能把自己从空闲队列中取回（没有被分配任务），就继续拉取，否则任务会滞留在队列中
+                if (!taskQueue.isEmpty() && freeCorePool.remove(this)) isFree = false;
             }
         }
 
@@ -199,6 +232,7 @@ public class ThreadPoolService {
                 }
                 //这个判断条件是很苛刻的
                 if(!isFree&&task==null) pullTask();//二者都用volatile遵循happens-bofore,防止主线程修改到一半就去拉取
+                else if(park&&task==null) LockSupport.park(this);//空闲，等待主线程分配任务后唤醒
             }
             log.info(Thread.currentThread().getName() + "消亡");
         }
@@ -238,11 +272,11 @@ public class ThreadPoolService {
             Runnable task = taskQueue.poll();
             if (task != null) {
                 setTask(task);
-                queueSize.decrementAndGet();
             } else {//失败说明任务队列已为空
                 isFree = true;
                 beginFree = System.currentTimeMillis();
                 freeNonCorePool.add(this);
+                if (!taskQueue.isEmpty() && freeNonCorePool.remove(this)) isFree = false;//同核心线程
             }
         }
 
@@ -251,6 +285,7 @@ public class ThreadPoolService {
          * @description: 在没有shutDown且(在忙或者剩余时间 > 0)时不会消亡，
          * 每次完成任务后将当前任务置空
          * 总是尝试从队列中拉取任务
+         * 空闲到时后，只有成功把自己从空闲队列中移除才消亡，移除失败说明刚被分配了任务，要继续执行
          * 消亡时，当前线程数-1
          * @return: void
          * @author: 杜科
@@ -258,13 +293,23 @@ public class ThreadPoolService {
          */
         @Override
         public void run() {
-            while ((!isShutDown || !taskQueue.isEmpty()) && (!isFree || System.currentTimeMillis() - beginFree < keepAlive)) {
+            while (!isShutDown || !taskQueue.isEmpty()) {
                 if (task != null) {
                     task.run();
                     log.info(Thread.currentThread().getName() + "完成任务——" + task);
                     task = null;
                 }
-                if(!isFree&&task==null) pullTask();
+                if(!isFree&&task==null) {
+                    pullTask();
+                    continue;
+                }
+                if(task!=null) continue;
+                long remain = keepAlive - (System.currentTimeMillis() - beginFree);
+                if(remain<=0) {
+                    if(freeNonCorePool.remove(this)) break;
+                    continue;//已被主线程取出，等待任务设置完成
+                }
+                if(park) LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remain));
             }
             curSize.decrementAndGet();
             freeNonCorePool.remove(this);//把消亡的线程从队列中移除，消亡后的线程不为null，不会被上面的executrByNonCore感知到，进而造成任务丢失
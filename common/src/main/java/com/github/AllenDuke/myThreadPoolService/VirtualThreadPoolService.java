@@ -0,0 +1,121 @@
+package com.github.AllenDuke.myThreadPoolService;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 杜科
+ * @description 每个任务一个虚拟线程的执行器，适合会阻塞在下游io上的服务实现。
+ * 虚拟线程阻塞时只挂起自身、不占用平台线程，几万个并发调用的代价也很小；
+ * 同时存在的任务数由信号量限制，提交时先取得许可再创建虚拟线程，取不到许可时抛出RejectedExecutionException，
+ * 由提交的一方立即通知客户端服务繁忙，积压的任务数不会无限增长。
+ * 项目按java8编译，这里通过反射调用Executors.newVirtualThreadPerTaskExecutor，
+ * 运行在没有虚拟线程的jdk上时退回到平台线程池：线程数缺省为cpu核数，空闲60秒回收，
+ * 多出的任务在有界队列中排队，队列满时同样抛出RejectedExecutionException。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/24
+ */
+@Slf4j
+public class VirtualThreadPoolService {
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 10000;//默认同时存在的虚拟线程任务数上限
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;//默认退回到平台线程池时的队列容量
+
+    private final ExecutorService executor;
+
+    //限制同时存在的任务数，退回到平台线程池时为null，由线程数和队列容量限制
+    private final Semaphore permits;
+
+    public VirtualThreadPoolService() {
+        this(DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * @param maxConcurrency 同时存在的虚拟线程任务数上限
+     */
+    public VirtualThreadPoolService(int maxConcurrency) {
+        this(maxConcurrency, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param maxConcurrency 同时存在的虚拟线程任务数上限
+     * @param platformThreads 退回到平台线程池时的线程数
+     * @param queueCapacity 退回到平台线程池时的队列容量
+     */
+    public VirtualThreadPoolService(int maxConcurrency, int platformThreads, int queueCapacity) {
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("并发上限必须大于0");
+        if (platformThreads <= 0 || queueCapacity <= 0) throw new IllegalArgumentException("线程数和队列容量必须大于0");
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        if (virtual != null) {
+            executor = virtual;
+            permits = new Semaphore(maxConcurrency);
+            log.info("业务调用使用虚拟线程，并发上限 " + maxConcurrency);
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(platformThreads, platformThreads,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            permits = null;
+            log.warn("当前jdk不支持虚拟线程，业务调用退回到平台线程池，线程数 " + platformThreads + "，队列容量 " + queueCapacity);
+        }
+    }
+
+    //jdk21以上才有虚拟线程，找不到方法时返回null
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {//例如jdk19、20中虚拟线程是预览特性，没有开启时调用失败
+            log.warn("无法创建虚拟线程执行器：" + e);
+            return null;
+        }
+    }
+
+    /**
+     * @description: 提交任务，取得许可后才创建虚拟线程，执行完归还
+     * @param task 任务
+     * @return: void
+     * @throws RejectedExecutionException 任务数已达上限，或平台线程池的队列已满
+     * @author: 杜科
+     * @date: 2020/3/24
+     */
+    public void execute(Runnable task) {
+        if (permits == null) {
+            executor.execute(task);
+            return;
+        }
+        if (!permits.tryAcquire()) throw new RejectedExecutionException("虚拟线程任务数已达上限");
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {//执行器已关闭
+            permits.release();
+            throw e;
+        }
+    }
+
+    public boolean isVirtual() {
+        return permits != null;
+    }
+
+    //关闭执行器，已提交的任务仍会执行完
+    public void shutDown() {
+        executor.shutdown();
+        log.info("线程池关闭");
+    }
+}
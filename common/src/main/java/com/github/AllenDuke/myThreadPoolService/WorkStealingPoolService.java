@@ -0,0 +1,190 @@
+package com.github.AllenDuke.myThreadPoolService;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author 杜科
+ * @description 工作窃取线程池，作为ThreadPoolService的另一种调度方式。
+ * ThreadPoolService的所有线程竞争同一个任务队列，核数多了以后这个队列就成了瓶颈；
+ * 这里线程数固定，每个线程有自己的本地队列（MpmcRingBuffer），提交者按亲和键（如channel）或轮询把任务放入某个线程的本地队列，
+ * 线程优先处理本地队列，本地为空时从随机的一个线程开始依次窃取别的线程的队列，都为空才进入空闲。
+ * 空闲线程先自旋若干次再park，提交时若目标线程空闲则唤醒它，否则唤醒一个空闲线程来窃取。
+ * 为了不丢失唤醒：线程先标记空闲再检查所有队列是否为空，提交者先入队再读取空闲标记，
+ * 两边都是先写volatile（入队位置的CAS、空闲标记）再读对方写的volatile，至少有一方能看到另一方。
+ * 本地队列满时依次尝试放入别的线程的队列，全满则拒绝。
+ * shutDown后拒绝任务，所有线程在消费完全部队列后消亡。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/23
+ */
+@Slf4j
+public class WorkStealingPoolService {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;//默认每个线程本地队列的容量
+
+    private static final int SPIN_TIMES = 64;//进入park前自旋检查的次数
+
+    private final Worker[] workers;
+
+    private final AtomicInteger next = new AtomicInteger();//没有亲和键时轮询选择线程
+
+    private volatile boolean isShutDown = false;
+
+    private RejectHandler rejectHandler = new MyRejectHandler();//拒绝策略
+
+    //线程数为cpu核数
+    public WorkStealingPoolService() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param size 线程数
+     * @param queueCapacity 每个线程本地队列的容量，会向上取整为2的幂
+     */
+    public WorkStealingPoolService(int size, int queueCapacity) {
+        if (size <= 0) throw new IllegalArgumentException("线程数必须大于0");
+        workers = new Worker[size];
+        for (int i = 0; i < size; i++) workers[i] = new Worker(i, queueCapacity);
+        for (Worker worker : workers) worker.start();
+    }
+
+    /**
+     * @description: 轮询选择线程提交任务
+     * @param task 任务
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/23
+     */
+    public void execute(Runnable task) {
+        execute(task, next.getAndIncrement());
+    }
+
+    /**
+     * @description: 按亲和键提交任务，同一个键的任务优先由同一个线程处理（被窃取时除外）
+     * @param task 任务
+     * @param affinity 亲和键，如channel的hashCode
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/23
+     */
+    public void execute(Runnable task, int affinity) {
+        if (isShutDown) {
+            reject(task);
+            return;
+        }
+        int start = (affinity & Integer.MAX_VALUE) % workers.length;
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[(start + i) % workers.length];
+            if (worker.queue.offer(task)) {
+                signal(worker);
+                return;
+            }
+        }
+        reject(task);
+    }
+
+    //目标线程空闲则唤醒它，否则唤醒一个空闲线程来窃取
+    private void signal(Worker target) {
+        if (target.idle) {
+            LockSupport.unpark(target);
+            return;
+        }
+        for (int i = 1; i < workers.length; i++) {
+            Worker worker = workers[(target.index + i) % workers.length];
+            if (worker.idle) {
+                LockSupport.unpark(worker);
+                return;
+            }
+        }
+    }
+
+    //设置拒绝策略，缺省为MyRejectHandler（抛弃任务）
+    public void setRejectHandler(RejectHandler rejectHandler) {
+        this.rejectHandler = rejectHandler;
+    }
+
+    private void reject(Runnable task) {
+        rejectHandler.reject(task);
+    }
+
+    //所有队列是否都为空，按入队位置判断，元素已占位但还没写入的也算不空
+    private boolean allEmpty() {
+        for (Worker worker : workers) if (!worker.queue.isEmpty()) return false;
+        return true;
+    }
+
+    //关闭线程池，拒绝任务，线程消费完所有队列后消亡
+    public void shutDown() {
+        isShutDown = true;
+        for (Worker worker : workers) LockSupport.unpark(worker);
+        log.info("线程池关闭");
+    }
+
+    public int getSize() {
+        return workers.length;
+    }
+
+    /**
+     * @description: 工作线程，先处理本地队列，再窃取别的线程的队列，都没有任务时自旋后park
+     * @author: 杜科
+     * @date: 2020/3/23
+     */
+    class Worker extends Thread {
+
+        private final int index;
+
+        private final MpmcRingBuffer<Runnable> queue;
+
+        private volatile boolean idle = false;
+
+        Worker(int index, int queueCapacity) {
+            this.index = index;
+            this.queue = new MpmcRingBuffer<>(queueCapacity);
+            setName("worker" + index);
+        }
+
+        //从本地队列取任务，取不到时从随机位置开始窃取
+        private Runnable nextTask() {
+            Runnable task = queue.poll();
+            if (task != null) return task;
+            int n = workers.length;
+            if (n == 1) return null;
+            int start = ThreadLocalRandom.current().nextInt(n);
+            for (int i = 0; i < n; i++) {
+                Worker victim = workers[(start + i) % n];
+                if (victim == this) continue;
+                task = victim.queue.poll();
+                if (task != null) return task;
+            }
+            return null;
+        }
+
+        @Override
+        public void run() {
+            int spins = 0;
+            for (; ; ) {
+                Runnable task = nextTask();
+                if (task != null) {
+                    spins = 0;
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        log.error(getName() + "执行任务异常——" + task, t);
+                    }
+                    continue;
+                }
+                if (isShutDown && allEmpty()) break;
+                if (++spins < SPIN_TIMES) continue;
+                idle = true;
+                //标记空闲后再检查一次，提交者可能在标记前入队而没有唤醒自己
+                if (allEmpty() && !isShutDown) LockSupport.park(this);
+                idle = false;
+                spins = 0;
+            }
+            log.info(getName() + "消亡");
+        }
+    }
+}
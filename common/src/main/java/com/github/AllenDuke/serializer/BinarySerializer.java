@@ -0,0 +1,432 @@
+package com.github.AllenDuke.serializer;
+
+import com.alibaba.fastjson.JSON;
+import com.github.AllenDuke.dto.BatchClientMessage;
+import com.github.AllenDuke.dto.BatchServerMessage;
+import com.github.AllenDuke.dto.ClientMessage;
+import com.github.AllenDuke.dto.HandshakeMessage;
+import com.github.AllenDuke.dto.ServerMessage;
+import com.github.AllenDuke.dto.StreamChunk;
+import com.github.AllenDuke.dto.StreamCredit;
+import com.github.AllenDuke.exception.SerializeException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author 杜科
+ * @description 紧凑的二进制序列化器，按字段顺序直接写ClientMessage、ServerMessage和HandshakeMessage，不写字段名。
+ * 批量请求和批量结果写为 个数+各条消息，流式结果的一块写为 请求id+是否最后一块+错误提示+个数+各个元素。
+ * 请求带有方法id时，只写方法id，不写类名、方法名和签名哈希。
+ * 每个参数和结果前都带一个类型标记，反序列化后类型与发送时一致，不会像fastjson那样把Integer变成Long、BigDecimal。
+ * 常见类型（基本类型的包装类、String、byte[]、集合、数组）直接编码，其他对象写入类名后退回到json。
+ * 所有读写都直接在ByteBuf上进行，字符串按UTF-8直接编码进缓冲区。
+ * List、Set、Map分别读为ArrayList、HashSet、HashMap，不保留发送方的具体集合类型。
+ * 读取时不信任对端：个数为负数或超过剩余字节数能容纳的元素数时直接失败，不会按对端给的个数分配内存；
+ * 集合、数组的嵌套超过MAX_DEPTH层时直接失败，不会因为递归过深在netty线程中栈溢出；
+ * 按类名反序列化的对象和数组元素类型必须在TypeWhitelist中。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/9
+ */
+public class BinarySerializer implements Serializer {
+
+    public static final byte CODE = 2;
+
+    //类型标记
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte CHAR = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+    private static final byte BYTES = 10;
+    private static final byte BIG_DECIMAL = 11;
+    private static final byte BIG_INTEGER = 12;
+    private static final byte LIST = 13;
+    private static final byte SET = 14;
+    private static final byte MAP = 15;
+    private static final byte ARRAY = 16;
+    private static final byte OBJECT = 17;
+
+    //集合、数组允许嵌套的最大层数
+    static final int MAX_DEPTH = 64;
+
+    @Override
+    public byte getCode() {
+        return CODE;
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        try {
+            if (obj instanceof ClientMessage) writeClientMessage(out, (ClientMessage) obj);
+            else if (obj instanceof ServerMessage) writeServerMessage(out, (ServerMessage) obj);
+            else if (obj instanceof HandshakeMessage) writeHandshakeMessage(out, (HandshakeMessage) obj);
+            else if (obj instanceof BatchClientMessage) writeBatchClientMessage(out, (BatchClientMessage) obj);
+            else if (obj instanceof BatchServerMessage) writeBatchServerMessage(out, (BatchServerMessage) obj);
+            else if (obj instanceof StreamChunk) writeStreamChunk(out, (StreamChunk) obj);
+            else if (obj instanceof StreamCredit) {
+                out.writeLong(((StreamCredit) obj).getRequestId());
+                out.writeInt(((StreamCredit) obj).getCredit());
+            }
+            else writeValue(out, obj);
+        } catch (IOException e) {
+            throw new SerializeException("二进制序列化失败", e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        try {
+            if (clazz == ClientMessage.class) return (T) readClientMessage(in);
+            if (clazz == ServerMessage.class) return (T) readServerMessage(in);
+            if (clazz == HandshakeMessage.class) return (T) readHandshakeMessage(in);
+            if (clazz == BatchClientMessage.class) return (T) readBatchClientMessage(in);
+            if (clazz == BatchServerMessage.class) return (T) readBatchServerMessage(in);
+            if (clazz == StreamChunk.class) return (T) readStreamChunk(in);
+            if (clazz == StreamCredit.class) return (T) new StreamCredit(in.readLong(), in.readInt());
+            return clazz.cast(readValue(in));
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            throw new SerializeException("二进制反序列化失败", e);
+        }
+    }
+
+    private void writeClientMessage(ByteBuf out, ClientMessage message) throws IOException {
+        out.writeLong(message.getRequestId());
+        out.writeInt(message.getMethodId());
+        if (message.getMethodId() == 0) {
+            writeString(out, message.getClassName());
+            writeString(out, message.getMethodName());
+            out.writeInt(message.getMethodHash());
+        }
+        Object[] args = message.getArgs();
+        if (args == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(args.length);
+        for (Object arg : args) writeValue(out, arg);
+    }
+
+    private ClientMessage readClientMessage(ByteBuf in) throws IOException, ClassNotFoundException {
+        ClientMessage message = new ClientMessage();
+        message.setRequestId(in.readLong());
+        message.setMethodId(in.readInt());
+        if (message.getMethodId() == 0) {
+            message.setClassName(readString(in));
+            message.setMethodName(readString(in));
+            message.setMethodHash(in.readInt());
+        }
+        int length = in.readInt();
+        if (length >= 0) {
+            Object[] args = new Object[checkSize(in, length, 1)];
+            for (int i = 0; i < length; i++) args[i] = readValue(in);
+            message.setArgs(args);
+        }
+        return message;
+    }
+
+    private void writeServerMessage(ByteBuf out, ServerMessage message) throws IOException {
+        out.writeLong(message.getRequestId());
+        out.writeBoolean(message.isSucceed());
+        writeValue(out, message.getReselut());
+    }
+
+    private ServerMessage readServerMessage(ByteBuf in) throws IOException, ClassNotFoundException {
+        ServerMessage message = new ServerMessage();
+        message.setRequestId(in.readLong());
+        message.setSucceed(in.readBoolean());
+        message.setReselut(readValue(in));
+        return message;
+    }
+
+    private void writeHandshakeMessage(ByteBuf out, HandshakeMessage message) {
+        String[] serviceNames = message.getServiceNames();
+        int[] methodHashes = message.getMethodHashes();
+        out.writeInt(serviceNames.length);
+        for (int i = 0; i < serviceNames.length; i++) {
+            writeString(out, serviceNames[i]);
+            out.writeInt(methodHashes[i]);
+        }
+    }
+
+    private HandshakeMessage readHandshakeMessage(ByteBuf in) {
+        int length = readSize(in, 8);//服务名长度+签名哈希
+        String[] serviceNames = new String[length];
+        int[] methodHashes = new int[length];
+        for (int i = 0; i < length; i++) {
+            serviceNames[i] = readString(in);
+            methodHashes[i] = in.readInt();
+        }
+        return new HandshakeMessage(serviceNames, methodHashes);
+    }
+
+    private void writeBatchClientMessage(ByteBuf out, BatchClientMessage message) throws IOException {
+        ClientMessage[] calls = message.getCalls();
+        out.writeInt(calls.length);
+        for (ClientMessage call : calls) writeClientMessage(out, call);
+    }
+
+    private BatchClientMessage readBatchClientMessage(ByteBuf in) throws IOException, ClassNotFoundException {
+        ClientMessage[] calls = new ClientMessage[readSize(in, 16)];
+        for (int i = 0; i < calls.length; i++) calls[i] = readClientMessage(in);
+        return new BatchClientMessage(calls);
+    }
+
+    private void writeBatchServerMessage(ByteBuf out, BatchServerMessage message) throws IOException {
+        ServerMessage[] results = message.getResults();
+        out.writeInt(results.length);
+        for (ServerMessage result : results) writeServerMessage(out, result);
+    }
+
+    private BatchServerMessage readBatchServerMessage(ByteBuf in) throws IOException, ClassNotFoundException {
+        ServerMessage[] results = new ServerMessage[readSize(in, 10)];
+        for (int i = 0; i < results.length; i++) results[i] = readServerMessage(in);
+        return new BatchServerMessage(results);
+    }
+
+    private void writeStreamChunk(ByteBuf out, StreamChunk chunk) throws IOException {
+        out.writeLong(chunk.getRequestId());
+        out.writeBoolean(chunk.isLast());
+        writeString(out, chunk.getError());
+        Object[] items = chunk.getItems();
+        if (items == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(items.length);
+        for (Object item : items) writeValue(out, item);
+    }
+
+    private StreamChunk readStreamChunk(ByteBuf in) throws IOException, ClassNotFoundException {
+        StreamChunk chunk = new StreamChunk();
+        chunk.setRequestId(in.readLong());
+        chunk.setLast(in.readBoolean());
+        chunk.setError(readString(in));
+        int length = in.readInt();
+        if (length >= 0) {
+            Object[] items = new Object[checkSize(in, length, 1)];
+            for (int i = 0; i < length; i++) items[i] = readValue(in);
+            chunk.setItems(items);
+        }
+        return chunk;
+    }
+
+    /**
+     * @description: 写入一个带类型标记的值，集合和数组会递归写入元素
+     * @param out 输出
+     * @param value 要写入的值
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/9
+     */
+    private void writeValue(ByteBuf out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.writeBytes(bytes);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, value.toString());
+        } else if (value instanceof List) {
+            out.writeByte(LIST);
+            writeCollection(out, (List<?>) value);
+        } else if (value instanceof Set) {
+            out.writeByte(SET);
+            writeCollection(out, (Set<?>) value);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof Object[]) {//基本类型数组走下面的json
+            Object[] array = (Object[]) value;
+            out.writeByte(ARRAY);
+            writeString(out, array.getClass().getComponentType().getName());
+            out.writeInt(array.length);
+            for (Object element : array) writeValue(out, element);
+        } else {
+            out.writeByte(OBJECT);
+            writeString(out, value.getClass().getName());
+            int lengthIndex = out.writerIndex();
+            out.writeInt(0);//长度占位
+            int length = JSON.writeJSONString(new ByteBufOutputStream(out), value);
+            out.setInt(lengthIndex, length);
+        }
+    }
+
+    private Object readValue(ByteBuf in) throws IOException, ClassNotFoundException {
+        return readValue(in, 0);
+    }
+
+    //depth为所在的集合、数组的层数，每层只占几个字节，不限制的话一帧就能让递归栈溢出
+    private Object readValue(ByteBuf in, int depth) throws IOException, ClassNotFoundException {
+        if (depth > MAX_DEPTH) throw new IOException("嵌套层数超过" + MAX_DEPTH);
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case BOOLEAN:
+                return in.readBoolean();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return in.readChar();
+            case BYTES: {
+                byte[] bytes = new byte[readSize(in, 1)];
+                in.readBytes(bytes);
+                return bytes;
+            }
+            case BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case BIG_INTEGER:
+                return new BigInteger(readString(in));
+            case LIST: {
+                int size = readSize(in, 1);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) list.add(readValue(in, depth + 1));
+                return list;
+            }
+            case SET: {
+                int size = readSize(in, 1);
+                Set<Object> set = new HashSet<>(size * 2);
+                for (int i = 0; i < size; i++) set.add(readValue(in, depth + 1));
+                return set;
+            }
+            case MAP: {
+                int size = readSize(in, 2);
+                Map<Object, Object> map = new HashMap<>(size * 2);
+                for (int i = 0; i < size; i++) map.put(readValue(in, depth + 1), readValue(in, depth + 1));
+                return map;
+            }
+            case ARRAY: {
+                Class<?> componentType = loadClass(readString(in));
+                int length = readSize(in, 1);
+                Object[] array = (Object[]) Array.newInstance(componentType, length);
+                for (int i = 0; i < length; i++) array[i] = readValue(in, depth + 1);
+                return array;
+            }
+            case OBJECT: {
+                Class<?> clazz = loadClass(readString(in));
+                int length = readSize(in, 1);
+                return JSON.parseObject(new ByteBufInputStream(in.readSlice(length)), clazz);
+            }
+            default:
+                throw new SerializeException("未知的类型标记：" + tag);
+        }
+    }
+
+    private void writeCollection(ByteBuf out, Collection<?> collection) throws IOException {
+        out.writeInt(collection.size());
+        for (Object element : collection) writeValue(out, element);
+    }
+
+    //字符串写为 长度+UTF-8字节，null的长度为-1，直接编码进缓冲区后回填长度
+    private void writeString(ByteBuf out, String s) {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);//长度占位
+        int length = ByteBufUtil.writeUtf8(out, s);
+        out.setInt(lengthIndex, length);
+    }
+
+    private String readString(ByteBuf in) {
+        int length = in.readInt();
+        if (length < 0) return null;
+        checkSize(in, length, 1);
+        return in.readCharSequence(length, StandardCharsets.UTF_8).toString();
+    }
+
+    //读取个数，不能为负数
+    private int readSize(ByteBuf in, int minElementSize) {
+        return checkSize(in, in.readInt(), minElementSize);
+    }
+
+    //个数不能为负数，也不能超过剩余字节数能容纳的元素数，在分配内存之前检查
+    private int checkSize(ByteBuf in, int size, int minElementSize) {
+        if (size < 0 || (long) size * minElementSize > in.readableBytes())
+            throw new SerializeException("错误的长度：" + size + "，剩余字节数：" + in.readableBytes());
+        return size;
+    }
+
+    //加载但不初始化，不在白名单中的类型拒绝反序列化
+    private Class<?> loadClass(String className) throws ClassNotFoundException {
+        if (className == null) throw new SerializeException("缺少类名");
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) loader = BinarySerializer.class.getClassLoader();
+        Class<?> clazz = Class.forName(className, false, loader);
+        if (!TypeWhitelist.isAllowed(clazz)) throw new SerializeException("不允许反序列化的类型：" + className);
+        return clazz;
+    }
+}
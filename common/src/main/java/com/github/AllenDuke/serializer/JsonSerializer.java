@@ -0,0 +1,41 @@
+package com.github.AllenDuke.serializer;
+
+import com.alibaba.fastjson.JSON;
+import com.github.AllenDuke.exception.SerializeException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+/**
+ * @author 杜科
+ * @description 基于fastjson的序列化器，可读性好，但参数类型会按fastjson的Number规则变化
+ * @contact AllenDuke@163.com
+ * @since 2020/3/9
+ */
+public class JsonSerializer implements Serializer {
+
+    public static final byte CODE = 1;
+
+    @Override
+    public byte getCode() {
+        return CODE;
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        try {
+            JSON.writeJSONString(new ByteBufOutputStream(out), obj);
+        } catch (Exception e) {
+            throw new SerializeException("json序列化失败", e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        try {
+            return JSON.parseObject(new ByteBufInputStream(in), clazz);
+        } catch (Exception e) {
+            throw new SerializeException("json反序列化失败", e);
+        }
+    }
+}
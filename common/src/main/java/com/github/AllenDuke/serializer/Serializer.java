@@ -0,0 +1,22 @@
+package com.github.AllenDuke.serializer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * @author 杜科
+ * @description 序列化器，负责ClientMessage与ServerMessage和ByteBuf之间的转换，
+ * 直接读写netty的缓冲区，不经过中间的String和byte[]。
+ * 实现应当是无状态的，会被多个线程同时使用。
+ * 失败时抛出SerializeException
+ * @contact AllenDuke@163.com
+ * @since 2020/3/9
+ */
+public interface Serializer {
+
+    //序列化器编号，写在帧头中，接收方据此选择序列化器
+    byte getCode();
+
+    void serialize(Object obj, ByteBuf out);
+
+    <T> T deserialize(ByteBuf in, Class<T> clazz);
+}
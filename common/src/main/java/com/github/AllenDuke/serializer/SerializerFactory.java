@@ -0,0 +1,50 @@
+package com.github.AllenDuke.serializer;
+
+import com.github.AllenDuke.exception.ArgNotFoundExecption;
+import com.github.AllenDuke.exception.SerializeException;
+
+/**
+ * @author 杜科
+ * @description 根据rpc.yml中的serializer参数选择发送时使用的序列化器，
+ * 接收时则根据帧头中的编号选择
+ * @contact AllenDuke@163.com
+ * @since 2020/3/9
+ */
+public class SerializerFactory {
+
+    public static final String JSON = "json";
+
+    public static final String BINARY = "binary";
+
+    private static final Serializer jsonSerializer = new JsonSerializer();
+
+    private static final Serializer binarySerializer = new BinarySerializer();
+
+    /**
+     * @description: 按名字获取序列化器，缺省为json
+     * @param name json或binary
+     * @return: com.github.AllenDuke.serializer.Serializer
+     * @author: 杜科
+     * @date: 2020/3/9
+     */
+    public static Serializer getSerializer(String name) {
+        if (name == null || JSON.equals(name)) return jsonSerializer;
+        if (BINARY.equals(name)) return binarySerializer;
+        throw new ArgNotFoundExecption("不支持的序列化方式：" + name);
+    }
+
+    /**
+     * @description: 按帧头中的编号获取序列化器
+     * @param code 序列化器编号
+     * @return: com.github.AllenDuke.serializer.Serializer
+     * @author: 杜科
+     * @date: 2020/3/10
+     */
+    public static Serializer getSerializer(byte code) {
+        if (code == JsonSerializer.CODE) return jsonSerializer;
+        if (code == BinarySerializer.CODE) return binarySerializer;
+        throw new SerializeException("未知的序列化器编号：" + code);
+    }
+
+    private SerializerFactory(){}
+}
@@ -0,0 +1,83 @@
+package com.github.AllenDuke.serializer;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Date;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author 杜科
+ * @description 二进制序列化器按类名反序列化对象（OBJECT、ARRAY）时允许的类型。
+ * 类名由对端发来，不加限制时对端可以让我们用fastjson实例化任意类，是反序列化漏洞的入口。
+ * 允许的类型有两部分：
+ * 1.服务接口方法的参数和返回类型（包括泛型参数，如List<User>中的User），服务端注册服务时、客户端第一次使用接口时登记，
+ * 只登记精确类型，子类需要另外用register(Class)登记；java.*下的类型不登记，由第2条决定；
+ * 2.java.*中的值类型：String、基本类型的包装类、java.math、java.time下的类型、Date、UUID。
+ * 数组按元素类型判断。登记可以在任意时刻、由任意线程进行。
+ * @contact AllenDuke@163.com
+ * @since 2020/4/2
+ */
+public final class TypeWhitelist {
+
+    private static final Set<Class<?>> allowed = ConcurrentHashMap.newKeySet();
+
+    private TypeWhitelist() {
+    }
+
+    /**
+     * @description: 登记方法的参数和返回类型
+     * @param method 服务接口或实现类的方法
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/4/2
+     */
+    public static void register(Method method) {
+        add(method.getGenericReturnType());
+        for (Type type : method.getGenericParameterTypes()) add(type);
+    }
+
+    //显式登记一个类型，例如参数的子类
+    public static void register(Class<?> clazz) {
+        add(clazz);
+    }
+
+    private static void add(Type type) {
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            while (clazz.isArray()) clazz = clazz.getComponentType();
+            if (!clazz.isPrimitive() && !clazz.getName().startsWith("java.")) allowed.add(clazz);
+        } else if (type instanceof ParameterizedType) {
+            add(((ParameterizedType) type).getRawType());
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) add(argument);
+        } else if (type instanceof GenericArrayType) {
+            add(((GenericArrayType) type).getGenericComponentType());
+        } else if (type instanceof WildcardType) {
+            for (Type bound : ((WildcardType) type).getUpperBounds()) add(bound);
+        } else if (type instanceof TypeVariable) {
+            for (Type bound : ((TypeVariable<?>) type).getBounds()) add(bound);
+        }
+    }
+
+    /**
+     * @description: 是否允许反序列化这个类型
+     * @param clazz 对端发来的类名加载得到的类（没有初始化）
+     * @return: boolean
+     * @author: 杜科
+     * @date: 2020/4/2
+     */
+    public static boolean isAllowed(Class<?> clazz) {
+        while (clazz.isArray()) clazz = clazz.getComponentType();
+        if (clazz.isPrimitive() || allowed.contains(clazz)) return true;
+        String name = clazz.getName();
+        if (name.startsWith("java.math.") || name.startsWith("java.time.")) return true;
+        return clazz == String.class || clazz == Boolean.class || clazz == Character.class
+                || (clazz.getSuperclass() == Number.class && name.startsWith("java.lang."))
+                || clazz == Date.class || clazz == UUID.class;
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.AllenDuke.util;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * @author 杜科
+ * @description 方法签名，由方法名和声明的参数类型组成，如 add(java.lang.Integer,java.lang.String)。
+ * 客户端从接口的Method、服务端从实现类的Method计算，二者一致，所以可以用签名的哈希来标识要调用的方法，
+ * 服务端不必再根据实参的运行时类型去猜是哪个方法，基本类型、子类、null参数和重载都能被正确处理。
+ * 哈希使用String.hashCode，它的算法是规范规定的，在不同的jvm上结果相同；0保留为“没有签名”。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/20
+ */
+public class MethodSignature {
+
+    /**
+     * @description: 得到方法的签名
+     * @param method 方法
+     * @return: java.lang.String
+     * @author: 杜科
+     * @date: 2020/3/20
+     */
+    public static String of(Method method) {
+        StringBuilder builder = new StringBuilder(method.getName()).append('(');
+        Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(types[i].getName());
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * @description: 得到方法签名的哈希，不会为0
+     * @param method 方法
+     * @return: int
+     * @author: 杜科
+     * @date: 2020/3/20
+     */
+    public static int hash(Method method) {
+        int hash = of(method).hashCode();
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * @description: 按方法名和实参在接口的方法中找到要调用的方法，有重载时选能接受实参的最具体的一个
+     * @param methods 接口的方法
+     * @param methodName 方法名
+     * @param args 实参
+     * @return: java.lang.reflect.Method 找不到时为null
+     * @author: 杜科
+     * @date: 2020/3/20
+     */
+    public static Method resolve(Method[] methods, String methodName, Object[] args) {
+        Method best = null;
+        for (Method method : methods) {
+            if (!method.getName().equals(methodName) || !accepts(method.getParameterTypes(), args)) continue;
+            if (best == null || isAssignable(best.getParameterTypes(), method.getParameterTypes())) best = method;
+        }
+        return best;
+    }
+
+    private static boolean accepts(Class<?>[] types, Object[] args) {
+        int length = args == null ? 0 : args.length;
+        if (length != types.length) return false;
+        for (int i = 0; i < length; i++) {
+            if (args[i] == null) {
+                if (types[i].isPrimitive()) return false;
+            } else if (!wrap(types[i]).isInstance(args[i])) return false;
+        }
+        return true;
+    }
+
+    //to的每个参数类型都可以赋值给from对应的参数类型
+    private static boolean isAssignable(Class<?>[] from, Class<?>[] to) {
+        for (int i = 0; i < from.length; i++) {
+            if (!wrap(from[i]).isAssignableFrom(wrap(to[i]))) return false;
+        }
+        return true;
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.AllenDuke.myThreadPoolService;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 杜科
+ * @description 环形队列的测试。多个生产者和多个消费者在一个很小的队列上并发入队出队，队列会反复满和空：
+ * 每个元素恰好被取走一次，同一个生产者的元素被同一个消费者按入队顺序取到，
+ * 满时offer返回false，空时poll返回null，size不会超过容量。
+ * @contact AllenDuke@163.com
+ * @since 2020/4/5
+ */
+public class MpmcRingBufferTest {
+
+    private static final int PRODUCERS = 4;
+
+    private static final int CONSUMERS = 3;
+
+    private static final int PER_PRODUCER = 100000;
+
+    //所有任务在同一时刻开始，全部结束后返回各自的结果
+    private static <T> List<T> runConcurrently(List<Callable<T>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(tasks.size());
+            List<Future<T>> futures = new ArrayList<>();
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    return task.call();
+                }));
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) results.add(future.get(120, TimeUnit.SECONDS));
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new MpmcRingBuffer<>(0).capacity());
+        assertEquals(2, new MpmcRingBuffer<>(1).capacity());
+        assertEquals(8, new MpmcRingBuffer<>(5).capacity());
+        assertEquals(8, new MpmcRingBuffer<>(8).capacity());
+    }
+
+    @Test
+    public void fullAndEmptyAtCapacity() {
+        MpmcRingBuffer<Integer> queue = new MpmcRingBuffer<>(8);
+        for (int round = 0; round < 5; round++) {//多绕几圈，覆盖序号的回绕
+            assertTrue(queue.isEmpty());
+            assertNull(queue.poll());
+            for (int i = 0; i < 8; i++) assertTrue(queue.offer(round * 8 + i));
+            assertEquals(8, queue.size());
+            assertFalse(queue.offer(-1), "满了还能入队");
+            for (int i = 0; i < 8; i++) assertEquals(round * 8 + i, queue.poll());
+            assertNull(queue.poll(), "空了还能出队");
+            assertEquals(0, queue.size());
+        }
+
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertEquals(1, queue.poll());
+        for (int i = 3; i < 10; i++) assertTrue(queue.offer(i));//出队一个之后又正好能放满
+        assertFalse(queue.offer(10));
+        for (int i = 2; i < 10; i++) assertEquals(i, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void producersAndConsumersNeitherLoseNorDuplicate() throws Exception {
+        MpmcRingBuffer<Integer> queue = new MpmcRingBuffer<>(16);
+        int total = PRODUCERS * PER_PRODUCER;
+        AtomicIntegerArray taken = new AtomicIntegerArray(total);
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicInteger fullCount = new AtomicInteger();
+        AtomicInteger emptyCount = new AtomicInteger();
+        AtomicInteger oversize = new AtomicInteger();
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int from = p * PER_PRODUCER;
+            tasks.add(() -> {
+                for (int i = from; i < from + PER_PRODUCER; i++) {
+                    while (!queue.offer(i)) {
+                        fullCount.incrementAndGet();
+                        Thread.yield();
+                    }
+                    if (queue.size() > queue.capacity()) oversize.incrementAndGet();
+                }
+                return 0;
+            });
+        }
+        for (int c = 0; c < CONSUMERS; c++) {
+            tasks.add(() -> {
+                int disorder = 0;
+                int[] last = new int[PRODUCERS];//每个生产者最后取到的元素
+                Arrays.fill(last, -1);
+                while (consumed.get() < total) {
+                    Integer e = queue.poll();
+                    if (e == null) {
+                        emptyCount.incrementAndGet();
+                        Thread.yield();
+                        continue;
+                    }
+                    consumed.incrementAndGet();
+                    taken.incrementAndGet(e);
+                    int producer = e / PER_PRODUCER;
+                    if (e <= last[producer]) disorder++;
+                    last[producer] = e;
+                }
+                return disorder;
+            });
+        }
+
+        for (int disorder : runConcurrently(tasks)) assertEquals(0, disorder, "同一个生产者的元素乱序");
+        assertEquals(total, consumed.get());
+        for (int i = 0; i < total; i++) if (taken.get(i) != 1) fail("元素" + i + "被取走了" + taken.get(i) + "次");
+        assertEquals(0, oversize.get());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        //队列只有16个槽位，生产远多于此，并发过程中至少满过或空过，否则没有测到边界
+        assertTrue(fullCount.get() > 0 || emptyCount.get() > 0);
+
+        for (int i = 0; i < queue.capacity(); i++) assertTrue(queue.offer(i));
+        assertFalse(queue.offer(-1));
+    }
+}
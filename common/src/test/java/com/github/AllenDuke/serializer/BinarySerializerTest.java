@@ -0,0 +1,257 @@
+package com.github.AllenDuke.serializer;
+
+import com.github.AllenDuke.dto.ClientMessage;
+import com.github.AllenDuke.dto.ServerMessage;
+import com.github.AllenDuke.exception.SerializeException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author 杜科
+ * @description 二进制序列化器的测试，参数和结果经过一次编解码后类型和值都要不变，
+ * 对端发来的错误长度、不在白名单中的类型和过深的嵌套都要以SerializeException失败
+ * @contact AllenDuke@163.com
+ * @since 2020/4/5
+ */
+public class BinarySerializerTest {
+
+    private final BinarySerializer serializer = new BinarySerializer();
+
+    //只在测试中登记到白名单的类型
+    public static class Point {
+        private int x;
+        private int y;
+
+        public Point() {
+        }
+
+        public Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public void setX(int x) {
+            this.x = x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public void setY(int y) {
+            this.y = y;
+        }
+    }
+
+    //从未登记到白名单的类型
+    public static class Unregistered {
+        private String name = "x";
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    private <T> T roundTrip(Object obj, Class<T> clazz) {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            serializer.serialize(obj, buf);
+            T result = serializer.deserialize(buf, clazz);
+            assertEquals(0, buf.readableBytes(), "没有读完");
+            return result;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private void assertRejected(ByteBuf buf, Class<?> clazz) {
+        try {
+            assertThrows(SerializeException.class, () -> serializer.deserialize(buf, clazz));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void clientMessageKeepsArgTypes() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("a", Arrays.asList(1, 2L));
+        map.put("b", Collections.singletonMap((short) 3, new BigDecimal("1.50")));
+        Object[] args = {1, 2L, (short) 3, (byte) 4, 'c', 5.0f, 6.0, true, "字符串", null,
+                new BigDecimal("12345678901234567890.0100"), new BigInteger("123456789012345678901234567890"),
+                new byte[]{1, 2, 3}, new Integer[]{7, null, 8}, new String[]{"x", "y"}, new int[]{9, 10},
+                new ArrayList<>(Arrays.asList(1, Arrays.asList(2L, Collections.singleton((short) 3)))),
+                new HashSet<>(Arrays.asList(11, 12L)), map};
+        ClientMessage message = new ClientMessage("CalculatorImpl", "add", 42, args);
+        message.setRequestId(Long.MAX_VALUE);
+
+        ClientMessage result = roundTrip(message, ClientMessage.class);
+
+        assertEquals(Long.MAX_VALUE, result.getRequestId());
+        assertEquals("CalculatorImpl", result.getClassName());
+        assertEquals("add", result.getMethodName());
+        assertEquals(42, result.getMethodHash());
+        Object[] got = result.getArgs();
+        assertEquals(args.length, got.length);
+        for (int i = 0; i <= 11; i++) {//包装类不会被放宽成别的Number
+            if (args[i] == null) assertNull(got[i]);
+            else assertEquals(args[i].getClass(), got[i].getClass(), "第" + i + "个参数");
+            assertEquals(args[i], got[i]);
+        }
+        assertEquals(new BigDecimal("12345678901234567890.0100").scale(), ((BigDecimal) got[10]).scale());
+        assertArrayEquals((byte[]) args[12], (byte[]) got[12]);
+        assertEquals(Integer[].class, got[13].getClass());
+        assertArrayEquals((Integer[]) args[13], (Integer[]) got[13]);
+        assertEquals(String[].class, got[14].getClass());
+        assertArrayEquals((String[]) args[14], (String[]) got[14]);
+        assertArrayEquals((int[]) args[15], (int[]) got[15]);
+        assertEquals(args[16], got[16]);
+        List<?> nested = (List<?>) ((List<?>) got[16]).get(1);
+        assertEquals(Long.class, nested.get(0).getClass());
+        assertEquals(Short.class, ((Set<?>) nested.get(1)).iterator().next().getClass());
+        assertEquals(args[17], got[17]);
+        assertEquals(args[18], got[18]);
+    }
+
+    @Test
+    public void clientMessageWithMethodIdOmitsNames() {
+        ClientMessage message = new ClientMessage("CalculatorImpl", "add", 42, new Object[0]);
+        message.setMethodId(7);
+
+        ClientMessage result = roundTrip(message, ClientMessage.class);
+
+        assertEquals(7, result.getMethodId());
+        assertNull(result.getClassName());
+        assertNull(result.getMethodName());
+        assertEquals(0, result.getArgs().length);
+        assertNull(roundTrip(new ClientMessage("A", "b", null), ClientMessage.class).getArgs());
+    }
+
+    @Test
+    public void serverMessageKeepsResultType() {
+        ServerMessage message = new ServerMessage(9, true, Arrays.asList((short) 1, new BigDecimal("2.0"),
+                new Long[]{3L}, Collections.singletonMap(4, Arrays.asList(5, 6L))));
+
+        ServerMessage result = roundTrip(message, ServerMessage.class);
+
+        assertEquals(9, result.getRequestId());
+        assertTrue(result.isSucceed());
+        List<?> list = (List<?>) result.getReselut();
+        assertEquals(Short.class, list.get(0).getClass());
+        assertEquals(new BigDecimal("2.0"), list.get(1));
+        assertArrayEquals(new Long[]{3L}, (Long[]) list.get(2));
+        assertEquals(Collections.singletonMap(4, Arrays.asList(5, 6L)), list.get(3));
+
+        ServerMessage failed = roundTrip(new ServerMessage(10, false, "调用失败"), ServerMessage.class);
+        assertFalse(failed.isSucceed());
+        assertEquals("调用失败", failed.getReselut());
+    }
+
+    @Test
+    public void registeredObjectRoundTrips() {
+        TypeWhitelist.register(Point.class);
+
+        Point point = roundTrip(new Point(1, 2), Point.class);
+        assertEquals(1, point.getX());
+        assertEquals(2, point.getY());
+
+        Point[] points = roundTrip(new Point[]{new Point(3, 4)}, Point[].class);
+        assertEquals(4, points[0].getY());
+    }
+
+    @Test
+    public void rejectsClassNotInWhitelist() {
+        ByteBuf buf = Unpooled.buffer();
+        serializer.serialize(new Unregistered(), buf);
+        assertRejected(buf, Object.class);
+
+        buf = Unpooled.buffer();
+        serializer.serialize(new Unregistered[]{new Unregistered()}, buf);
+        assertRejected(buf, Object.class);
+
+        buf = Unpooled.buffer();
+        buf.writeByte(17);//OBJECT
+        writeString(buf, "java.lang.ProcessBuilder");
+        writeString(buf, "{}");
+        assertRejected(buf, Object.class);
+    }
+
+    @Test
+    public void rejectsOversizedLengths() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(10);//BYTES
+        buf.writeInt(Integer.MAX_VALUE);
+        assertRejected(buf, Object.class);
+
+        buf = Unpooled.buffer();
+        buf.writeByte(15);//MAP
+        buf.writeInt(-1);
+        assertRejected(buf, Object.class);
+
+        buf = Unpooled.buffer();
+        buf.writeByte(13);//LIST
+        buf.writeInt(1000);
+        buf.writeZero(10);
+        assertRejected(buf, Object.class);
+
+        buf = Unpooled.buffer();
+        buf.writeByte(9);//STRING
+        buf.writeInt(1 << 30);
+        buf.writeBytes("abc".getBytes());
+        assertRejected(buf, Object.class);
+
+        buf = Unpooled.buffer();
+        buf.writeLong(1);//requestId
+        buf.writeInt(7);//methodId
+        buf.writeInt(Integer.MAX_VALUE);//参数个数
+        assertRejected(buf, ClientMessage.class);
+    }
+
+    @Test
+    public void limitsNestingDepth() {
+        List<Object> allowed = new ArrayList<>();
+        for (int i = 0; i < BinarySerializer.MAX_DEPTH; i++) allowed = new ArrayList<>(Collections.singletonList(allowed));
+        assertEquals(allowed, roundTrip(allowed, List.class));
+
+        List<Object> tooDeep = new ArrayList<>(Collections.singletonList(allowed));
+        ByteBuf buf = Unpooled.buffer();
+        serializer.serialize(tooDeep, buf);
+        assertRejected(buf, List.class);
+
+        buf = Unpooled.buffer();
+        for (int i = 0; i < 1_000_000; i++) {//不限制层数时这一帧会让递归栈溢出
+            buf.writeByte(13);//LIST
+            buf.writeInt(1);
+        }
+        buf.writeByte(0);//NULL
+        assertRejected(buf, Object.class);
+    }
+
+    private static void writeString(ByteBuf buf, String s) {
+        byte[] bytes = s.getBytes();
+        buf.writeInt(bytes.length);
+        buf.writeBytes(bytes);
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.AllenDuke.business;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 杜科
+ * @description 准入控制，按请求在业务线程池中的排队时间（从netty线程收到到业务线程开始执行）决定是否丢弃，
+ * 规则与CoDel（Controlled Delay）相同：排队时间偶尔变长是正常的突发，一直降不下来才是过载。
+ * 1.最近interval内有请求的排队时间低于target，说明队列能及时排空，只丢弃排队已经超过interval的请求；
+ * 2.超过interval都没有低于target的请求，说明已经过载，排队超过target的请求都丢弃，队列很快缩短，
+ * 后面的请求又能在target内开始执行，恢复到第一种情况。
+ * 丢弃发生在业务线程取出请求、开始执行之前，被丢弃的请求不调用实现方法，立即通知客户端服务繁忙，
+ * 客户端可以马上失败或转移到其他节点，不会白白等到超时，服务端也不再为客户端早已放弃的请求做无用功。
+ * 只保存一个时间戳，多个业务线程并发读写，偶尔覆盖不影响判断，不加锁。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/31
+ */
+public class AdmissionControl {
+
+    public static final long DEFAULT_TARGET_MILLIS = 5;//默认可以接受的排队时间
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;//默认判断过载的时间窗口
+
+    private final long targetNanos;
+
+    private final long intervalNanos;
+
+    //最近一次排队时间低于target的时刻
+    private volatile long lastGoodNanos = System.nanoTime();
+
+    /**
+     * @param targetMillis 可以接受的排队时间，毫秒
+     * @param intervalMillis 判断过载的时间窗口，毫秒
+     */
+    public AdmissionControl(long targetMillis, long intervalMillis) {
+        if (targetMillis <= 0 || intervalMillis < targetMillis)
+            throw new IllegalArgumentException("target必须大于0且不大于interval");
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * @description: 业务线程开始执行请求前调用，判断是否丢弃
+     * @param arrivalNanos 收到请求的时刻，System.nanoTime
+     * @return: boolean true为丢弃
+     * @author: 杜科
+     * @date: 2020/3/31
+     */
+    public boolean shouldShed(long arrivalNanos) {
+        long now = System.nanoTime();
+        long sojourn = now - arrivalNanos;
+        long lastGood = lastGoodNanos;
+        if (sojourn < targetNanos) {
+            if (now - lastGood > targetNanos) lastGoodNanos = now;//不必每次都写，减少缓存行争用
+            return false;
+        }
+        boolean overloaded = now - lastGood > intervalNanos;
+        return sojourn > (overloaded ? targetNanos : intervalNanos);
+    }
+
+    /**
+     * @description: 包装要提交到业务线程池的任务，记录收到的时刻，执行时先判断是否丢弃
+     * @param task 要执行的任务
+     * @param onShed 丢弃时执行，通知客户端
+     * @return: java.lang.Runnable
+     * @author: 杜科
+     * @date: 2020/3/31
+     */
+    public Runnable guard(Runnable task, Runnable onShed) {
+        long arrivalNanos = System.nanoTime();
+        return () -> {
+            if (shouldShed(arrivalNanos)) onShed.run();
+            else task.run();
+        };
+    }
+}
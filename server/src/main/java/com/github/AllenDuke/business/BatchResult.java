@@ -0,0 +1,67 @@
+package com.github.AllenDuke.business;
+
+import com.github.AllenDuke.dto.BatchServerMessage;
+import com.github.AllenDuke.dto.ClientMessage;
+import com.github.AllenDuke.dto.ServerMessage;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 杜科
+ * @description 一个批量请求的结果，收集各个调用的结果，最后一个调用完成时把全部结果放在一帧中写回。
+ * 各个调用可能在不同的线程中完成（并行执行、异步实现），每个调用只写自己的下标，
+ * 由原子计数器决定谁是最后一个，计数器的递减保证了之前写入的结果对写回的线程可见。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/28
+ */
+@Slf4j
+public class BatchResult {
+
+    private final ChannelHandlerContext ctx;
+
+    private final ServerMessage[] results;
+
+    //还没有完成的调用数
+    private final AtomicInteger remaining;
+
+    public BatchResult(ChannelHandlerContext ctx, int size) {
+        this.ctx = ctx;
+        this.results = new ServerMessage[size];
+        this.remaining = new AtomicInteger(size);
+    }
+
+    /**
+     * @description: 为批量请求中的每个调用创建调用任务
+     * @param calls 批量请求中的调用
+     * @param invokeHandler 调用处理器
+     * @return: com.github.AllenDuke.business.InvokeTask[]
+     * @author: 杜科
+     * @date: 2020/3/28
+     */
+    public InvokeTask[] newTasks(ClientMessage[] calls, InvokeHandler invokeHandler) {
+        InvokeTask[] tasks = new InvokeTask[calls.length];
+        for (int i = 0; i < calls.length; i++) tasks[i] = new InvokeTask(calls[i], invokeHandler, this, i);
+        return tasks;
+    }
+
+    /**
+     * @description: 第index个调用完成，全部完成时写回
+     * @param index 调用在批量请求中的下标
+     * @param serverMessage 调用的结果
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/28
+     */
+    public void complete(int index, ServerMessage serverMessage) {
+        results[index] = serverMessage;
+        if (remaining.decrementAndGet() != 0) return;
+        log.info("批量请求的 " + results.length + " 个调用已全部完成，即将返回");
+        ctx.writeAndFlush(new BatchServerMessage(results));
+    }
+
+    public ChannelHandlerContext getContext() {
+        return ctx;
+    }
+}
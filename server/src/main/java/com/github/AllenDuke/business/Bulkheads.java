@@ -0,0 +1,126 @@
+package com.github.AllenDuke.business;
+
+import com.github.AllenDuke.dto.ClientMessage;
+import com.github.AllenDuke.exception.ArgNotFoundExecption;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 杜科
+ * @description 舱壁隔离，为指定的服务或方法分配独立的线程池。
+ * 所有调用共用一个业务线程池时，一个慢服务（例如阻塞的方法）会占满线程和队列，使快的服务也跟着排队；
+ * 按rpc.yml中server下的bulkheads配置，每一项的键为服务名（如HelloServiceImpl）或服务名.方法名（如CalculatorImpl.add），
+ * 值为该舱壁线程池的threads（线程数）和queueCapacity（队列容量），方法的配置优先于所在服务的配置。
+ * 启动时按方法id预先算好每个方法对应的线程池，带方法id的请求只需一次数组访问；
+ * 没有配置舱壁的方法返回null，仍由businessPoolModel决定的方式执行。
+ * 舱壁的线程池满时抛出RejectedExecutionException，由调用者立即通知客户端，而不是让客户端等到超时。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/26
+ */
+@Slf4j
+public class Bulkheads {
+
+    public static final int DEFAULT_THREADS = 4;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    //下标为方法id，下标0不使用
+    private final ThreadPoolExecutor[] byMethodId;
+
+    //服务名与线程池
+    private final Map<String, ThreadPoolExecutor> byService;
+
+    //服务名.方法名与线程池
+    private final Map<String, ThreadPoolExecutor> byMethod;
+
+    private Bulkheads(ThreadPoolExecutor[] byMethodId, Map<String, ThreadPoolExecutor> byService,
+                      Map<String, ThreadPoolExecutor> byMethod) {
+        this.byMethodId = byMethodId;
+        this.byService = byService;
+        this.byMethod = byMethod;
+    }
+
+    /**
+     * @description: 按配置建立舱壁，配置中的服务或方法必须存在于注册表中
+     * @param config bulkheads下的配置，可以为null
+     * @param registry 服务注册表
+     * @return: com.github.AllenDuke.business.Bulkheads
+     * @author: 杜科
+     * @date: 2020/3/26
+     */
+    @SuppressWarnings("unchecked")
+    public static Bulkheads build(Map<String, Object> config, ServiceRegistry registry) {
+        Map<String, ThreadPoolExecutor> byService = new HashMap<>();
+        Map<String, ThreadPoolExecutor> byMethod = new HashMap<>();
+        if (config != null) {
+            for (Map.Entry<String, Object> entry : config.entrySet()) {
+                String key = entry.getKey();
+                Map<String, Object> map = (Map<String, Object>) entry.getValue();
+                int dot = key.indexOf('.');
+                String serviceName = dot < 0 ? key : key.substring(0, dot);
+                ServiceEntry service = registry.getService(serviceName);
+                if (service == null) throw new ArgNotFoundExecption("rpc.yml中bulkheads的服务 " + serviceName + " 不存在!");
+                if (dot >= 0 && !service.getMethods().containsKey(key.substring(dot + 1)))
+                    throw new ArgNotFoundExecption("rpc.yml中bulkheads的方法 " + key + " 不存在!");
+                int threads = DEFAULT_THREADS;
+                int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+                if (map != null && map.containsKey("threads")) threads = (int) map.get("threads");
+                if (map != null && map.containsKey("queueCapacity")) queueCapacity = (int) map.get("queueCapacity");
+                (dot < 0 ? byService : byMethod).put(key, newExecutor(key, threads, queueCapacity));
+                log.info("舱壁 " + key + "，线程数 " + threads + "，队列容量 " + queueCapacity);
+            }
+        }
+        String[] serviceNames = registry.getHandshake().getServiceNames();
+        ThreadPoolExecutor[] byMethodId = new ThreadPoolExecutor[serviceNames.length + 1];
+        for (int id = 1; id < byMethodId.length; id++) {
+            String methodName = registry.getInvoker(id).getMethod().getName();
+            byMethodId[id] = find(byService, byMethod, serviceNames[id - 1], methodName);
+        }
+        return new Bulkheads(byMethodId, Collections.unmodifiableMap(byService), Collections.unmodifiableMap(byMethod));
+    }
+
+    private static ThreadPoolExecutor find(Map<String, ThreadPoolExecutor> byService,
+                                           Map<String, ThreadPoolExecutor> byMethod,
+                                           String serviceName, String methodName) {
+        if (byMethod.isEmpty() && byService.isEmpty()) return null;
+        ThreadPoolExecutor executor = byMethod.isEmpty() ? null : byMethod.get(serviceName + "." + methodName);
+        return executor != null ? executor : byService.get(serviceName);
+    }
+
+    private static ThreadPoolExecutor newExecutor(String name, int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "bulkhead-" + name + "-" + count.getAndIncrement()));
+    }
+
+    /**
+     * @description: 找到请求应该使用的舱壁线程池
+     * @param clientMessage 客户端发来的信息
+     * @return: java.util.concurrent.ThreadPoolExecutor 没有配置舱壁时为null
+     * @author: 杜科
+     * @date: 2020/3/26
+     */
+    public ThreadPoolExecutor route(ClientMessage clientMessage) {
+        int methodId = clientMessage.getMethodId();
+        if (methodId > 0 && methodId < byMethodId.length) return byMethodId[methodId];
+        return find(byService, byMethod, clientMessage.getClassName(), clientMessage.getMethodName());
+    }
+
+    public boolean isEmpty() {
+        return byService.isEmpty() && byMethod.isEmpty();
+    }
+
+    //关闭所有舱壁线程池，已提交的任务仍会执行完，服务端关闭时调用
+    public void shutDown() {
+        for (ThreadPoolExecutor executor : byService.values()) executor.shutdown();
+        for (ThreadPoolExecutor executor : byMethod.values()) executor.shutdown();
+    }
+}
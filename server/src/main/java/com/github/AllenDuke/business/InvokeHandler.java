@@ -2,115 +2,106 @@ package com.github.AllenDuke.business;
 
 import com.github.AllenDuke.dto.ClientMessage;
 import com.github.AllenDuke.exception.MethodNotFoundException;
-import com.github.AllenDuke.producerService.RPCServer;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author 杜科
- * @description 调用处理器，找到类，找到方法，调用
+ * @description 调用处理器，找到服务，找到方法，调用。
+ * 服务和方法都来自启动时建立的不可变注册表，每个服务只有一个实例，每个方法已预编译成MethodInvoker，
+ * 调用时只有两次map查找，没有类加载、方法扫描、字符串拼接，也没有并发修改。
+ * 客户端带有方法id时直接以id找到方法，否则带有方法签名的哈希时按哈希确定方法，
+ * 这两种情况实参都按声明的参数类型转换；都没有时按方法名和实参的类型查找。
  * @contact AllenDuke@163.com
  * @since 2020/3/1
  */
 public class InvokeHandler {
-    
-    //实现类所在的包名，可把类都先加载到一个HashMap中
-    private static String packageName = RPCServer.packageName+".";
 
-    //key为实现类的全限定名
-    private static final Map<String, Class> classMap = new HashMap<>();
+    private final ServiceRegistry registry;
 
-    //key为实现方法的全限定名
-    private static final Map<String, Method> methodMap = new HashMap<>();
+    public InvokeHandler(ServiceRegistry registry) {
+        this.registry = registry;
+    }
 
     /**
-     * @description: 找到要调用的类，先从缓存中找，找不到在Class.forName()加载，会抛出ClassNotFoundException
-     * @param className 类的全限定名
-     * @return: java.lang.Class
+     * @description: 找到要调用的服务，会抛出ClassNotFoundException
+     * @param className 服务名，即实现类去掉packageName前缀的类名
+     * @return: com.github.AllenDuke.business.ServiceEntry
      * @author: 杜科
      * @date: 2020/3/1
      */
-    public Class findClass(String className) throws ClassNotFoundException {
-        Class serviceImpl = classMap.get(className);
-        if(serviceImpl==null) serviceImpl= Class.forName(className);//找不到将抛异常
-        classMap.put(className,serviceImpl);
-        return serviceImpl;
+    public ServiceEntry findService(String className) throws ClassNotFoundException {
+        ServiceEntry service = registry.getService(className);
+        if (service == null) throw new ClassNotFoundException(className);
+        return service;
     }
 
     /**
-     * @description: 找到要调用的方法，先从缓存中找，会抛出MethodNotFoundException
-     * @param serviceImpl 要调用的类
+     * @description: 找到要调用的方法的调用器，会抛出MethodNotFoundException。
+     * 有签名哈希时按哈希找到方法，并把实参转换成声明的类型；否则按方法名和实参选择
+     * @param service 要调用的服务
      * @param methodName 要调用的方法的名字
-     * @param args 方法的参数，这里用作验证方法
-     * @param argsTypeName 参数类型名，这里用作找到方法后以全限定名添加到缓存
-     * @return: java.lang.reflect.Method
+     * @param methodHash 方法签名的哈希，0表示没有
+     * @param args 方法的参数，用作选择重载的方法
+     * @return: com.github.AllenDuke.business.MethodInvoker
      * @author: 杜科
      * @date: 2020/3/1
      */
-    public Method findMethod(Class serviceImpl,String methodName,Object[] args,String argsTypeName){
-        Method method = methodMap.get(serviceImpl.getName()+"."+methodName+argsTypeName);
-        if (method == null)
-            for (Method method1 : serviceImpl.getMethods()) {
-                if (method1.getName().equals(methodName)&&method1.getParameterCount()==args.length) {
-                    final Parameter[] parameters = method1.getParameters();
-                    boolean match=true;
-                    for (int i = 0; i < args.length; i++) {
-                        if(args[i].getClass()!=parameters[i].getType()){//发现参数类型不同，不再验证该方法
-                            match=false;
-                            break;
-                        }
-                    }
-                    if(match) {
-                        method=method1;
-                        methodMap.put(serviceImpl.getName()+"."+methodName+argsTypeName, method);
-                        break;
-                    }
-                }
-            }
-        if(method==null) throw new MethodNotFoundException("找不到方法 "+methodName);
-        return method;
+    public MethodInvoker findInvoker(ServiceEntry service, String methodName, int methodHash, Object[] args) {
+        if (methodHash != 0) {
+            MethodInvoker invoker = service.getInvoker(methodHash, methodName);
+            if (invoker != null && invoker.adapt(args)) return invoker;
+        }
+        MethodInvoker invoker = service.findInvoker(methodName, args);
+        if (invoker == null) throw new MethodNotFoundException("找不到方法 " + methodName);
+        return invoker;
     }
 
     /**
-     * @description: 对方法进行调用，会要求调用的类有无参构造
-     * 会抛出IllegalAccessException InstantiationException InvocationTargetException
-     * @param serviceImpl
-     * @param method
-     * @param args
+     * @description: 按握手时公布的方法id找到调用器，并把实参转换成声明的类型，会抛出MethodNotFoundException
+     * @param methodId 方法id
+     * @param args 方法的参数
+     * @return: com.github.AllenDuke.business.MethodInvoker
+     * @author: 杜科
+     * @date: 2020/3/21
+     */
+    public MethodInvoker findInvoker(int methodId, Object[] args) {
+        MethodInvoker invoker = registry.getInvoker(methodId);
+        if (invoker == null || !invoker.adapt(args)) throw new MethodNotFoundException("找不到方法，方法id：" + methodId);
+        return invoker;
+    }
+
+    /**
+     * @description: 对方法进行调用，实现方法抛出的异常包装成InvocationTargetException
+     * @param invoker 方法的调用器
+     * @param args 方法的参数
      * @return: java.lang.Object
      * @author: 杜科
      * @date: 2020/3/1
      */
-    public Object invoke(Class serviceImpl,Method method,Object[] args) throws IllegalAccessException,
-            InstantiationException, InvocationTargetException {
-        return method.invoke(serviceImpl.newInstance(), args );
+    public Object invoke(MethodInvoker invoker, Object[] args) throws InvocationTargetException {
+        try {
+            return invoker.invoke(args);
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
     }
 
     /**
-     * @description: 已经客户端发来的信息，进行方法用，返回结果
-     * 会抛出ClassNotFoundException IllegalAccessException
-     * InvocationTargetException InstantiationException MethodNotFoundException
+     * @description: 根据客户端发来的信息，进行方法调用，返回结果
+     * 会抛出ClassNotFoundException InvocationTargetException MethodNotFoundException
      * @param clientMessage 客户端发来的信息
      * @return: java.lang.Object
      * @author: 杜科
      * @date: 2020/3/1
      */
-    public Object handle(ClientMessage clientMessage) throws ClassNotFoundException, IllegalAccessException,
-            InvocationTargetException, InstantiationException ,MethodNotFoundException{
-        String className= packageName+clientMessage.getClassName();
-        Object[] args= clientMessage.getArgs();
-        StringBuilder argsTypeName=new StringBuilder(",argsType:");//参数类型名
-        for (Object arg : args) {
-            argsTypeName.append(arg.getClass().getName()+ " ");
-        }
-        String methodName= clientMessage.getMethodName();
-        Class serviceImpl=findClass(className);
-        Method method=findMethod(serviceImpl,methodName,args,argsTypeName.toString());
-        Object result=invoke(serviceImpl,method,args);
-        return result;
+    public Object handle(ClientMessage clientMessage) throws ClassNotFoundException, InvocationTargetException,
+            MethodNotFoundException {
+        Object[] args = clientMessage.getArgs();
+        MethodInvoker invoker;
+        if (clientMessage.getMethodId() != 0) invoker = findInvoker(clientMessage.getMethodId(), args);
+        else invoker = findInvoker(findService(clientMessage.getClassName()), clientMessage.getMethodName(),
+                clientMessage.getMethodHash(), args);
+        return invoke(invoker, args);
     }
 }
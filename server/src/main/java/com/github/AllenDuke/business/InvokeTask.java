@@ -1,15 +1,22 @@
 package com.github.AllenDuke.business;
 
-import com.alibaba.fastjson.JSON;
 import com.github.AllenDuke.dto.ClientMessage;
 import com.github.AllenDuke.dto.ServerMessage;
 import com.github.AllenDuke.exception.MethodNotFoundException;
 import io.netty.channel.ChannelHandlerContext;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
 /**
  * @author 杜科
  * @description 调用任务，加入线程池执行
+ * 实现方法返回CompletionStage（如CompletableFuture）时视为异步实现，不立即写回，而是在它完成时再写回结果，
+ * 业务线程不必等待下游，可以马上去执行别的任务。
+ * 属于批量请求的调用不单独写回，结果交给所在的BatchResult，全部完成后一起写回。
+ * 实现方法返回Iterator或Stream时，交给连接上的ServerStreams分块发送（批量请求中不支持）。
  * @contact AllenDuke@163.com
  * @since 2020/3/1
  */
@@ -25,12 +32,25 @@ public class InvokeTask implements Runnable {
     //当前channel的上下文，用于调用writeAndFlush
     private ChannelHandlerContext ctx;
 
+    //所在的批量请求，不属于批量请求时为null
+    private BatchResult batch;
+
+    //在批量请求中的下标
+    private int index;
+
     public InvokeTask(ClientMessage clientMessage, InvokeHandler invokehandler, ChannelHandlerContext ctx){
         this.clientMessage=clientMessage;
         this.invokehandler=invokehandler;
         this.ctx=ctx;
     }
 
+    //批量请求中的第index个调用
+    public InvokeTask(ClientMessage clientMessage, InvokeHandler invokehandler, BatchResult batch, int index){
+        this(clientMessage,invokehandler,batch.getContext());
+        this.batch=batch;
+        this.index=index;
+    }
+
     @Override
     public void run() {
         Object result=null;
@@ -38,29 +58,74 @@ public class InvokeTask implements Runnable {
             result=invokehandler.handle(clientMessage);
         } catch (ClassNotFoundException e) {
             log.error("找不到要调用的类，放弃本次调用，即将通知调用者",e);
-            ServerMessage serverMessage=new ServerMessage(clientMessage.getCallerId()
-                    ,clientMessage.getCount()
-                    , false,"找不到要调用的类，请检查类名");
-            ctx.writeAndFlush(JSON.toJSONString(serverMessage));
+            fail("找不到要调用的类，请检查类名");
             return;
         } catch(MethodNotFoundException e){
             log.error("找不到要调用的方法，放弃本次调用，即将通知调用者",e);
-            ServerMessage serverMessage=new ServerMessage(clientMessage.getCallerId()
-                    ,clientMessage.getCount()
-                    , false,"找不到要调用的方法，请检查方法名和参数");
-            ctx.writeAndFlush(JSON.toJSONString(serverMessage));
+            fail("找不到要调用的方法，请检查方法名和参数");
             return;
         } catch (Exception e){
             log.error("方法调用异常，放弃本次调用，即将通知调用者",e);
-            ServerMessage serverMessage=new ServerMessage(clientMessage.getCallerId()
-                    ,clientMessage.getCount()
-                    , false,"服务器的实现方法调用异常");
-            ctx.writeAndFlush(JSON.toJSONString(serverMessage));
+            fail("服务器的实现方法调用异常");
+            return;
+        }
+        if(ServerStreams.isStream(result)){
+            if(batch!=null) fail("批量调用不支持流式结果");
+            else ServerStreams.of(ctx).open(clientMessage.getRequestId(),result);
+            return;
+        }
+        reply(clientMessage.getRequestId(),result,this::respond);
+    }
+
+    /**
+     * @description: 不执行调用，直接通知调用者失败，例如线程池已满时
+     * @param reason 失败提示
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/28
+     */
+    public void fail(String reason){
+        respond(new ServerMessage(clientMessage.getRequestId(),false,reason));
+    }
+
+    //写回结果，批量请求中的调用交给BatchResult
+    private void respond(ServerMessage serverMessage){
+        if(batch==null) ctx.writeAndFlush(serverMessage);//由netty线程编码后发送
+        else batch.complete(index,serverMessage);
+    }
+
+    public ClientMessage getClientMessage() {
+        return clientMessage;
+    }
+
+    /**
+     * @description: 写回调用结果，结果是CompletionStage时在它完成后再写回，
+     * 此时写回由完成它的线程发起，writeAndFlush是线程安全的，最终由netty线程编码后发送
+     * @param requestId 请求id
+     * @param result 实现方法的返回值
+     * @param sink 写回结果的方式
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/25
+     */
+    private static void reply(long requestId, Object result, Consumer<ServerMessage> sink){
+        if(!(result instanceof CompletionStage)){
+            ServerMessage serverMessage=new ServerMessage(requestId,true,result);
+            log.info("实现方法调用成功，即将返回信息："+serverMessage);
+            sink.accept(serverMessage);
             return;
         }
-        ServerMessage serverMessage=new ServerMessage(clientMessage.getCallerId()
-                ,clientMessage.getCount(),true,result);
-        log.info("实现方法调用成功，即将返回信息："+serverMessage);
-        ctx.writeAndFlush(JSON.toJSONString(serverMessage));//转换为json文本，由netty线程发送
+        ((CompletionStage<?>) result).whenComplete((value,t)->{
+            ServerMessage serverMessage;
+            if(t==null){
+                serverMessage=new ServerMessage(requestId,true,value);
+                log.info("异步实现方法完成，即将返回信息："+serverMessage);
+            }else{
+                if(t instanceof CompletionException&&t.getCause()!=null) t=t.getCause();
+                log.error("异步实现方法异常结束，放弃本次调用，即将通知调用者",t);
+                serverMessage=new ServerMessage(requestId,false,"服务器的实现方法调用异常");
+            }
+            sink.accept(serverMessage);
+        });
     }
 }
@@ -0,0 +1,141 @@
+package com.github.AllenDuke.business;
+
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.util.TypeUtils;
+import com.github.AllenDuke.util.MethodSignature;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+
+/**
+ * @author 杜科
+ * @description 预编译的方法调用器，在第一次调用前把实现方法解析成一个MethodHandle，之后每次调用都直接使用。
+ * MethodHandle已绑定到服务的单例上，并适配成统一的 (Object[])Object 形式：
+ * 参数数组按声明的参数类型展开（包括基本类型的拆箱），void方法返回null。
+ * 调用时不再经过Method.invoke的访问检查和参数数组的复制，热点方法经过JIT后接近直接调用。
+ * 同时记录参数类型（基本类型换成包装类），用于在重载的方法中选出与实参匹配的一个，
+ * 或在已按签名确定方法时，把类型不符的实参（如fastjson解析出的Long、BigDecimal、JSONObject）转换成声明的类型。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/18
+ */
+public class MethodInvoker {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    //统一的调用形式
+    private static final MethodType GENERIC_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    private final Method method;
+
+    private final MethodHandle handle;
+
+    //方法签名的哈希
+    private final int signatureHash;
+
+    //声明的参数类型，带泛型，用于转换实参
+    private final Type[] genericParameterTypes;
+
+    //参数类型，基本类型已换成对应的包装类
+    private final Class<?>[] parameterTypes;
+
+    //参数是否为基本类型，基本类型的参数不能为null
+    private final boolean[] primitive;
+
+    /**
+     * @param target 服务的单例，静态方法时可以为null
+     * @param method 实现方法
+     */
+    public MethodInvoker(Object target, Method method) throws IllegalAccessException {
+        this.method = method;
+        method.setAccessible(true);//实现类可能不是public的
+        MethodHandle mh = MethodHandles.lookup().unreflect(method);
+        if (!Modifier.isStatic(method.getModifiers())) mh = mh.bindTo(target);
+        this.handle = mh.asSpreader(Object[].class, method.getParameterCount()).asType(GENERIC_TYPE);
+        this.signatureHash = MethodSignature.hash(method);
+        this.genericParameterTypes = method.getGenericParameterTypes();
+        Class<?>[] types = method.getParameterTypes();
+        this.parameterTypes = new Class<?>[types.length];
+        this.primitive = new boolean[types.length];
+        for (int i = 0; i < types.length; i++) {
+            primitive[i] = types[i].isPrimitive();
+            parameterTypes[i] = primitive[i] ? MethodType.methodType(types[i]).wrap().returnType() : types[i];
+        }
+    }
+
+    /**
+     * @description: 实参能否传给本方法：个数相同，每个实参都是对应参数类型（或其包装类）的实例，null只能传给非基本类型
+     * @param args 实参
+     * @return: boolean
+     * @author: 杜科
+     * @date: 2020/3/19
+     */
+    public boolean accepts(Object[] args) {
+        int length = args == null ? 0 : args.length;
+        if (length != parameterTypes.length) return false;
+        for (int i = 0; i < length; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                if (primitive[i]) return false;
+            } else if (!parameterTypes[i].isInstance(arg)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @description: 方法已按签名确定时，使实参与声明的参数类型一致，类型不符的实参原地转换，
+     * 类型已经一致时（二进制序列化器的常见情况）不做任何事
+     * @param args 实参
+     * @return: boolean 个数不符、基本类型参数为null或无法转换时为false
+     * @author: 杜科
+     * @date: 2020/3/20
+     */
+    public boolean adapt(Object[] args) {
+        int length = args == null ? 0 : args.length;
+        if (length != parameterTypes.length) return false;
+        for (int i = 0; i < length; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                if (primitive[i]) return false;
+            } else if (!parameterTypes[i].isInstance(arg)) {
+                try {
+                    args[i] = TypeUtils.cast(arg, genericParameterTypes[i], ParserConfig.getGlobalInstance());
+                } catch (RuntimeException e) {
+                    return false;
+                }
+                if (args[i] == null && primitive[i]) return false;
+            }
+        }
+        return true;
+    }
+
+    //本方法的每个参数类型都可以赋值给另一个方法对应的参数类型，即本方法更具体
+    public boolean isMoreSpecificThan(MethodInvoker other) {
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (!other.parameterTypes[i].isAssignableFrom(parameterTypes[i])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @description: 调用实现方法，实现方法抛出的异常原样抛出
+     * @param args 参数，个数与类型要与方法声明一致
+     * @return: java.lang.Object 方法的返回值，void方法为null
+     * @author: 杜科
+     * @date: 2020/3/18
+     */
+    public Object invoke(Object[] args) throws Throwable {
+        return handle.invokeExact(args == null ? NO_ARGS : args);
+    }
+
+    public int getSignatureHash() {
+        return signatureHash;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.AllenDuke.business;
+
+import com.github.AllenDuke.dto.StreamChunk;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.BaseStream;
+
+/**
+ * @author 杜科
+ * @description 一条连接上正在发送的流式结果，保存在channel的属性中。
+ * 实现方法返回Iterator或Stream时，不把结果一次性放进ServerMessage，而是每次从迭代器中取出至多chunkSize个元素作为一块发送。
+ * 每条流开始时有window个credit，每发送一块消耗一个，credit用完就停止迭代，等客户端归还credit后再继续，
+ * 所以服务端最多只会把window块放进发送缓冲区，迭代器也只会被推进到这里，不需要把整个结果放在内存中。
+ * 迭代（可能阻塞，如数据库游标）在业务线程中进行，由构造时传入的executor执行，netty线程只负责增加credit。
+ * 同一条流同一时刻只有一个线程在迭代，由scheduled标志保证；客户端取消或连接断开时关闭迭代器（如果它可以关闭）。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/29
+ */
+@Slf4j
+public class ServerStreams {
+
+    public static final AttributeKey<ServerStreams> KEY = AttributeKey.valueOf("serverStreams");
+
+    public static final int DEFAULT_WINDOW = 4;//默认每条流的初始credit
+
+    public static final int DEFAULT_CHUNK_SIZE = 64;//默认每块的元素个数
+
+    private final ChannelHandlerContext ctx;
+
+    //执行迭代的业务线程
+    private final Executor executor;
+
+    private final int window;
+
+    private final int chunkSize;
+
+    //请求id与流
+    private final Map<Long, StreamSession> sessions = new ConcurrentHashMap<>();
+
+    public ServerStreams(ChannelHandlerContext ctx, Executor executor, int window, int chunkSize) {
+        this.ctx = ctx;
+        this.executor = executor;
+        this.window = window;
+        this.chunkSize = chunkSize;
+    }
+
+    //得到连接上的流，连接建立时设置
+    public static ServerStreams of(ChannelHandlerContext ctx) {
+        return ctx.channel().attr(KEY).get();
+    }
+
+    //实现方法的返回值是否要以流的方式发送
+    public static boolean isStream(Object result) {
+        return result instanceof Iterator || result instanceof BaseStream;
+    }
+
+    /**
+     * @description: 开始发送一条流
+     * @param requestId 请求id
+     * @param result 实现方法返回的Iterator或Stream
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/29
+     */
+    public void open(long requestId, Object result) {
+        StreamSession session = result instanceof BaseStream
+                ? new StreamSession(requestId, ((BaseStream<?, ?>) result).iterator(), (AutoCloseable) result)
+                : new StreamSession(requestId, (Iterator<?>) result, result instanceof AutoCloseable ? (AutoCloseable) result : null);
+        sessions.put(requestId, session);
+        session.schedule();
+    }
+
+    /**
+     * @description: 收到客户端的credit，不大于0时取消
+     * @param requestId 请求id
+     * @param credit 归还的块数
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/29
+     */
+    public void credit(long requestId, int credit) {
+        StreamSession session = sessions.get(requestId);
+        if (session == null) return;//已经发送完毕或已取消
+        if (credit <= 0) session.cancel();
+        else session.addCredit(credit);
+    }
+
+    //连接断开，取消所有流
+    public void closeAll() {
+        for (StreamSession session : sessions.values()) session.cancel();
+    }
+
+    private class StreamSession implements Runnable {
+
+        private final long requestId;
+
+        private final Iterator<?> iterator;
+
+        //迭代结束或取消时关闭，不能关闭时为null
+        private final AutoCloseable closeable;
+
+        private final AtomicInteger credits = new AtomicInteger(window);
+
+        //是否有线程正在迭代或已提交迭代任务
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private volatile boolean closed = false;
+
+        //迭代器是否已经关闭，保证只关闭一次
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        StreamSession(long requestId, Iterator<?> iterator, AutoCloseable closeable) {
+            this.requestId = requestId;
+            this.iterator = iterator;
+            this.closeable = closeable;
+        }
+
+        void addCredit(int credit) {
+            credits.addAndGet(credit);
+            schedule();
+        }
+
+        //有credit且没有线程在迭代时，提交迭代任务
+        void schedule() {
+            if (closed || credits.get() <= 0 || !scheduled.compareAndSet(false, true)) return;
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {//业务线程池拒绝
+                log.error("流式结果——" + requestId + " 的迭代任务被拒绝", e);
+                finish(new StreamChunk(requestId, null, true, "服务繁忙，流式结果中断"));
+            }
+        }
+
+        //取消，正在迭代的线程会在退出时关闭迭代器，否则在这里关闭
+        void cancel() {
+            closed = true;
+            sessions.remove(requestId);
+            if (scheduled.compareAndSet(false, true)) release();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed && credits.get() > 0) {
+                    List<Object> items = new ArrayList<>(chunkSize);
+                    while (items.size() < chunkSize && iterator.hasNext()) items.add(iterator.next());
+                    boolean last = !iterator.hasNext();
+                    credits.decrementAndGet();
+                    if (last) {
+                        finish(new StreamChunk(requestId, items.toArray(), true, null));
+                        return;
+                    }
+                    ctx.writeAndFlush(new StreamChunk(requestId, items.toArray(), false, null));
+                }
+            } catch (Throwable t) {
+                log.error("流式结果——" + requestId + " 迭代异常，即将通知调用者", t);
+                finish(new StreamChunk(requestId, null, true, "服务器的实现方法迭代异常"));
+                return;
+            }
+            if (closed) {
+                release();
+                return;
+            }
+            scheduled.set(false);
+            if (closed) {//在上面的检查之后、scheduled复位之前被取消，cancel没能抢到scheduled，由这里关闭
+                if (scheduled.compareAndSet(false, true)) release();
+                return;
+            }
+            schedule();//退出前客户端可能刚归还了credit
+        }
+
+        //发送最后一块并结束
+        private void finish(StreamChunk lastChunk) {
+            closed = true;
+            sessions.remove(requestId);
+            ctx.writeAndFlush(lastChunk);
+            release();
+        }
+
+        private void release() {
+            if (closeable == null || !released.compareAndSet(false, true)) return;
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.error("关闭流式结果——" + requestId + " 的迭代器失败", e);
+            }
+        }
+    }
+}
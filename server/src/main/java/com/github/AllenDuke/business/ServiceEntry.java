@@ -0,0 +1,151 @@
+package com.github.AllenDuke.business;
+
+import com.github.AllenDuke.exception.ServiceRegisterException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author 杜科
+ * @description 注册表中的一个服务：服务名、长期存在的单例、以及方法名到方法调用器的索引。
+ * 构造时就把服务接口（实现类及其父类实现的、不在java.*中的接口）声明的方法预编译成MethodInvoker，
+ * 实现类中其他的公有方法不能被远程调用；同名的重载方法放在同一个数组中，
+ * 同时以方法签名的哈希建立索引，客户端带有签名哈希时直接按哈希找到方法。
+ * 签名哈希在同一个服务内冲突时，冲突的方法不进入哈希索引，调用这些方法时退回到按方法名和实参查找。
+ * 构造完成后不再修改，可以被任意线程无锁地读取。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/19
+ */
+@Slf4j
+public class ServiceEntry {
+
+    private final String name;
+
+    private final Object instance;
+
+    //方法名与该名字的所有重载方法
+    private final Map<String, MethodInvoker[]> methods;
+
+    //方法签名的哈希与方法
+    private final Map<Integer, MethodInvoker> signatures;
+
+    public ServiceEntry(String name, Object instance) {
+        this.name = name;
+        this.instance = instance;
+        Map<String, List<MethodInvoker>> grouped = new HashMap<>();
+        Map<Integer, MethodInvoker> bySignature = new HashMap<>();
+        Set<Integer> collisions = new HashSet<>();
+        for (Method method : exportedMethods(instance.getClass())) {
+            MethodInvoker invoker;
+            try {
+                invoker = new MethodInvoker(instance, method);
+            } catch (IllegalAccessException e) {
+                throw new ServiceRegisterException("无法访问服务 " + name + " 的方法 " + method, e);
+            }
+            grouped.computeIfAbsent(method.getName(), k -> new ArrayList<>()).add(invoker);
+            MethodInvoker old = bySignature.put(invoker.getSignatureHash(), invoker);
+            if (old != null) {
+                log.error("服务 " + name + " 的方法 " + old.getMethod() + " 与 " + method
+                        + " 的签名哈希冲突，调用它们时将按方法名和实参查找");
+                collisions.add(invoker.getSignatureHash());
+            }
+        }
+        for (Integer hash : collisions) bySignature.remove(hash);
+        this.signatures = Collections.unmodifiableMap(bySignature);
+        Map<String, MethodInvoker[]> index = new HashMap<>(grouped.size() * 2);
+        for (Map.Entry<String, List<MethodInvoker>> entry : grouped.entrySet())
+            index.put(entry.getKey(), entry.getValue().toArray(new MethodInvoker[0]));
+        this.methods = Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * @description: 实现类及其父类直接实现的服务接口，java.*中的接口（如Serializable）不算
+     * @param clazz 实现类
+     * @return: java.util.List<java.lang.Class<?>>
+     * @author: 杜科
+     * @date: 2020/4/2
+     */
+    public static List<Class<?>> serviceInterfaces(Class<?> clazz) {
+        List<Class<?>> interfaces = new ArrayList<>();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                if (!i.getName().startsWith("java.") && !interfaces.contains(i)) interfaces.add(i);
+            }
+        }
+        return interfaces;
+    }
+
+    //服务接口中声明（包括继承）的方法在实现类中对应的公有方法
+    private static Set<Method> exportedMethods(Class<?> clazz) {
+        Set<Method> methods = new LinkedHashSet<>();
+        for (Class<?> serviceInterface : serviceInterfaces(clazz)) {
+            for (Method method : serviceInterface.getMethods()) {
+                try {
+                    methods.add(clazz.getMethod(method.getName(), method.getParameterTypes()));
+                } catch (NoSuchMethodException e) {//抽象类才会出现，注册时已经排除
+                    throw new ServiceRegisterException(clazz.getName() + " 没有实现接口方法 " + method, e);
+                }
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * @description: 按方法名和实参找到调用器，只有一个同名方法时直接检查它，
+     * 有重载时在能接受实参的方法中选最具体的一个
+     * @param methodName 方法名
+     * @param args 实参
+     * @return: com.github.AllenDuke.business.MethodInvoker 找不到时为null
+     * @author: 杜科
+     * @date: 2020/3/19
+     */
+    public MethodInvoker findInvoker(String methodName, Object[] args) {
+        MethodInvoker[] candidates = methods.get(methodName);
+        if (candidates == null) return null;
+        if (candidates.length == 1) return candidates[0].accepts(args) ? candidates[0] : null;
+        MethodInvoker best = null;
+        for (MethodInvoker candidate : candidates) {
+            if (!candidate.accepts(args)) continue;
+            if (best == null || candidate.isMoreSpecificThan(best)) best = candidate;
+        }
+        return best;
+    }
+
+    /**
+     * @description: 按签名哈希找到调用器，并核对方法名，防止客户端与服务端接口不一致时调用到别的方法
+     * @param signatureHash 方法签名的哈希
+     * @param methodName 方法名
+     * @return: com.github.AllenDuke.business.MethodInvoker 找不到时为null
+     * @author: 杜科
+     * @date: 2020/3/20
+     */
+    public MethodInvoker getInvoker(int signatureHash, String methodName) {
+        MethodInvoker invoker = signatures.get(signatureHash);
+        if (invoker == null || !invoker.getMethod().getName().equals(methodName)) return null;
+        return invoker;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Object getInstance() {
+        return instance;
+    }
+
+    public Map<Integer, MethodInvoker> getSignatures() {
+        return signatures;
+    }
+
+    public Map<String, MethodInvoker[]> getMethods() {
+        return methods;
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.AllenDuke.business;
+
+import com.github.AllenDuke.dto.HandshakeMessage;
+import com.github.AllenDuke.exception.ServiceRegisterException;
+import com.github.AllenDuke.serializer.TypeWhitelist;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * @author 杜科
+ * @description 服务注册表，在服务端启动时一次性建立，之后不再修改。
+ * 服务来源有两个：显式注册的实例，以及扫描packageName（包括子包）得到的实现类。
+ * 扫描时只接受实现了服务接口（不在java.*中的接口）、有无参构造的具体类，每个类创建一个长期存在的单例；
+ * 服务名与客户端的算法相同，为服务接口的简单类名加Impl（即客户端发来的className），与实现类所在的子包、类名无关，
+ * 实现了多个服务接口的类以每个名字各注册一次。扫描到的服务名重复时启动失败，显式注册的同名服务优先。
+ * 建立后的索引是不可变的，业务线程并发读取时不需要加锁，也不会在调用时再加载类或查找方法。
+ * 每个能按签名哈希找到的方法还会分配一个从1开始的方法id（按服务名、签名哈希排序），
+ * 方法表在握手时公布给客户端，之后的请求只带方法id，服务端直接以id为下标找到方法。
+ * @contact AllenDuke@163.com
+ * @since 2020/3/19
+ */
+@Slf4j
+public class ServiceRegistry {
+
+    //服务名与服务
+    private final Map<String, ServiceEntry> services;
+
+    //下标为方法id，下标0不使用
+    private final MethodInvoker[] invokers;
+
+    //公布方法表的握手消息，所有连接共用
+    private final HandshakeMessage handshake;
+
+    private ServiceRegistry(Map<String, ServiceEntry> services) {
+        this.services = Collections.unmodifiableMap(services);
+        List<String> names = new ArrayList<>(services.keySet());
+        Collections.sort(names);
+        List<MethodInvoker> invokerList = new ArrayList<>();
+        List<String> serviceNames = new ArrayList<>();
+        invokerList.add(null);
+        for (String name : names) {
+            Map<Integer, MethodInvoker> signatures = services.get(name).getSignatures();
+            List<Integer> hashes = new ArrayList<>(signatures.keySet());
+            Collections.sort(hashes);
+            for (Integer hash : hashes) {
+                invokerList.add(signatures.get(hash));
+                serviceNames.add(name);
+            }
+        }
+        this.invokers = invokerList.toArray(new MethodInvoker[0]);
+        int[] methodHashes = new int[serviceNames.size()];
+        for (int i = 0; i < methodHashes.length; i++) methodHashes[i] = invokers[i + 1].getSignatureHash();
+        this.handshake = new HandshakeMessage(serviceNames.toArray(new String[0]), methodHashes);
+    }
+
+    /**
+     * @description: 建立注册表，先放入显式注册的服务，再扫描包
+     * @param packageName 实现类所在的包名，为null时不扫描
+     * @param registered 显式注册的服务，服务名与实例
+     * @return: com.github.AllenDuke.business.ServiceRegistry
+     * @author: 杜科
+     * @date: 2020/3/19
+     */
+    public static ServiceRegistry build(String packageName, Map<String, Object> registered) {
+        Map<String, ServiceEntry> services = new HashMap<>();
+        for (Map.Entry<String, Object> entry : registered.entrySet())
+            services.put(entry.getKey(), new ServiceEntry(entry.getKey(), entry.getValue()));
+        if (packageName != null) {
+            Map<String, Class<?>> scanned = new HashMap<>();
+            for (Class<?> clazz : scan(packageName)) {
+                Object instance = null;
+                for (Class<?> serviceInterface : ServiceEntry.serviceInterfaces(clazz)) {
+                    String name = serviceInterface.getSimpleName() + "Impl";
+                    Class<?> old = scanned.put(name, clazz);
+                    if (old != null)
+                        throw new ServiceRegisterException("服务名 " + name + " 重复：" + old.getName() + " 与 " + clazz.getName());
+                    if (registered.containsKey(name)) continue;//显式注册的优先
+                    if (instance == null) instance = newInstance(clazz);
+                    services.put(name, new ServiceEntry(name, instance));
+                }
+            }
+        }
+        for (ServiceEntry service : services.values()) {
+            log.info("注册服务 " + service.getName() + "，方法：" + service.getMethods().keySet());
+            for (MethodInvoker[] invokers : service.getMethods().values())//参数和返回类型才允许按类名反序列化
+                for (MethodInvoker invoker : invokers) TypeWhitelist.register(invoker.getMethod());
+        }
+        return new ServiceRegistry(services);
+    }
+
+    /**
+     * @description: 按服务名找到服务
+     * @param name 服务名，即客户端发来的className
+     * @return: com.github.AllenDuke.business.ServiceEntry 找不到时为null
+     * @author: 杜科
+     * @date: 2020/3/19
+     */
+    public ServiceEntry getService(String name) {
+        return services.get(name);
+    }
+
+    /**
+     * @description: 按方法id找到调用器
+     * @param methodId 握手时公布的方法id
+     * @return: com.github.AllenDuke.business.MethodInvoker 找不到时为null
+     * @author: 杜科
+     * @date: 2020/3/21
+     */
+    public MethodInvoker getInvoker(int methodId) {
+        return methodId > 0 && methodId < invokers.length ? invokers[methodId] : null;
+    }
+
+    public HandshakeMessage getHandshake() {
+        return handshake;
+    }
+
+    public Collection<ServiceEntry> getServices() {
+        return services.values();
+    }
+
+    //扫描包下所有可以作为服务的类
+    private static List<Class<?>> scan(String packageName) {
+        List<Class<?>> classes = new ArrayList<>();
+        String path = packageName.replace('.', '/');
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) loader = ServiceRegistry.class.getClassLoader();
+        try {
+            Enumeration<URL> urls = loader.getResources(path);
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                if ("file".equals(url.getProtocol())) {
+                    File dir = new File(URLDecoder.decode(url.getFile(), "UTF-8"));
+                    scanDirectory(dir, packageName, loader, classes);
+                } else if ("jar".equals(url.getProtocol())) {
+                    JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
+                    scanJar(jar, path, loader, classes);
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new ServiceRegisterException("扫描包 " + packageName + " 失败", e);
+        }
+        return classes;
+    }
+
+    private static void scanDirectory(File dir, String packageName, ClassLoader loader, List<Class<?>> classes)
+            throws ClassNotFoundException {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String fileName = file.getName();
+            if (file.isDirectory()) scanDirectory(file, packageName + "." + fileName, loader, classes);
+            else if (fileName.endsWith(".class"))
+                addIfService(packageName + "." + fileName.substring(0, fileName.length() - 6), loader, classes);
+        }
+    }
+
+    private static void scanJar(JarFile jar, String path, ClassLoader loader, List<Class<?>> classes)
+            throws ClassNotFoundException {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            String entryName = entries.nextElement().getName();
+            if (!entryName.startsWith(path + "/") || !entryName.endsWith(".class")) continue;
+            addIfService(entryName.substring(0, entryName.length() - 6).replace('/', '.'), loader, classes);
+        }
+    }
+
+    //实现了服务接口、有无参构造的具体类才作为服务，内部类不作为服务
+    private static void addIfService(String className, ClassLoader loader, List<Class<?>> classes)
+            throws ClassNotFoundException {
+        if (className.indexOf('$') >= 0) return;
+        Class<?> clazz = Class.forName(className, false, loader);
+        int modifiers = clazz.getModifiers();
+        if (clazz.isInterface() || Modifier.isAbstract(modifiers) || ServiceEntry.serviceInterfaces(clazz).isEmpty()) return;
+        try {
+            clazz.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            log.warn(className + " 没有无参构造，不作为服务");
+            return;
+        }
+        classes.add(clazz);
+    }
+
+    private static Object newInstance(Class<?> clazz) {
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (Exception e) {
+            throw new ServiceRegisterException("创建服务 " + clazz.getName() + " 的实例失败", e);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.github.AllenDuke.exception;
+
+/**
+ * @author 杜科
+ * @description 服务注册异常，启动时扫描或注册服务失败
+ * @contact AllenDuke@163.com
+ * @since 2020/3/19
+ */
+public class ServiceRegisterException extends RuntimeException{
+
+    public ServiceRegisterException(String s){super(s);}
+
+    public ServiceRegisterException(String s, Throwable cause){super(s, cause);}
+}
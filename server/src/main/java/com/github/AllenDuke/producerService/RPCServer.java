@@ -1,30 +1,42 @@
 package com.github.AllenDuke.producerService;
 
 
+import com.github.AllenDuke.business.AdmissionControl;
+import com.github.AllenDuke.business.Bulkheads;
+import com.github.AllenDuke.business.ServerStreams;
+import com.github.AllenDuke.business.ServiceRegistry;
+import com.github.AllenDuke.codec.FlushCoalescingHandler;
+import com.github.AllenDuke.codec.Protocol;
+import com.github.AllenDuke.codec.RPCMessageDecoder;
+import com.github.AllenDuke.codec.RPCMessageEncoder;
 import com.github.AllenDuke.exception.ArgNotFoundExecption;
+import com.github.AllenDuke.myThreadPoolService.AbortRejectHandler;
 import com.github.AllenDuke.myThreadPoolService.ThreadPoolService;
+import com.github.AllenDuke.myThreadPoolService.VirtualThreadPoolService;
+import com.github.AllenDuke.myThreadPoolService.WorkStealingPoolService;
+import com.github.AllenDuke.serializer.Serializer;
+import com.github.AllenDuke.serializer.SerializerFactory;
 import com.github.AllenDuke.util.YmlUtil;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * @author 杜科
  * @description rpc服务提供者，要求源码中resource文件夹中有rpc.yml
+ * 启动时建立服务注册表：扫描packageName下的实现类，加上启动前通过register显式注册的服务
  * @contact AllenDuke@163.com
  * @since 2020/2/11
  */
@@ -34,6 +46,15 @@ public class RPCServer {
     //服务实现类所在的包名
     public static String packageName;
 
+    //显式注册的服务，服务名与实例，需在启动前注册
+    private static final Map<String, Object> registered = new LinkedHashMap<>();
+
+    //服务注册表，启动时建立，之后不再修改
+    protected static ServiceRegistry registry;
+
+    //按服务或方法隔离的舱壁线程池，启动时按rpc.yml中的bulkheads建立
+    protected static Bulkheads bulkheads;
+
     //主机地址
     private static String host;
 
@@ -46,8 +67,35 @@ public class RPCServer {
     //worker数量
     private static int workerSize= 0;//为0将使用默认值：cpu核数*2
 
+    //最大帧长度，收发的单条消息都不能超过这个长度
+    private static int maxFrameLength= Protocol.DEFAULT_MAX_FRAME_LENGTH;
+
+    //发送时使用的序列化器，接收时按帧头选择
+    private static Serializer serializer;
+
+    //合并flush的最多次数，为0不合并
+    private static int flushMaxMessages=0;
+
+    //合并flush的最长推迟时间，微秒
+    private static long flushMaxDelayMicros=FlushCoalescingHandler.DEFAULT_MAX_DELAY_MICROS;
+
+    //发送缓冲区的高低水位，字节，为null时使用netty的默认值（32K、64K）
+    private static WriteBufferWaterMark waterMark;
+
     //业务线程池模型
-    protected static int businessPoolModel=0;//0为不开启，1为使用jdk线程池，2为使用自实现线程池
+    protected static int businessPoolModel=0;//0为不开启，1为使用jdk线程池，2为使用自实现线程池，3为每个调用一个虚拟线程
+
+    //流式结果每条流的初始credit，即最多在途的块数
+    protected static int streamWindow=ServerStreams.DEFAULT_WINDOW;
+
+    //流式结果每块的元素个数
+    protected static int streamChunkSize=ServerStreams.DEFAULT_CHUNK_SIZE;
+
+    //批量请求中的调用是否并行执行，false时整批作为一个任务按顺序执行
+    protected static boolean batchParallel=true;
+
+    //按排队时间丢弃请求的准入控制，没有配置admission时为null
+    protected static AdmissionControl admission;
 
     //jdk线程池
     protected static ThreadPoolExecutor executor;
@@ -55,30 +103,159 @@ public class RPCServer {
     //自实现线程池
     protected static ThreadPoolService poolService;
 
+    //工作窃取的自实现线程池，threadPool.schedule为stealing时使用，与poolService二者只用其一
+    protected static WorkStealingPoolService stealingPoolService;
+
+    //每个调用一个虚拟线程，businessPoolModel为3时使用
+    protected static VirtualThreadPoolService virtualPoolService;
+
+    //自实现线程池是否由服务端按rpc.yml创建，是的话由服务端在关闭时一并关闭，传入的线程池由调用者关闭
+    private static boolean ownsPoolService=false;
+
     public static void startServer(ThreadPoolExecutor poolExecutor){
         executor=poolExecutor;
         startServer();
     }
 
+    //传入的线程池保留其原有的拒绝策略，要在池满时通知客户端服务繁忙，需先设置AbortRejectHandler
     public static void startServer(ThreadPoolService threadPoolService){
         poolService=threadPoolService;
         startServer();
     }
 
+    //同上，保留传入的线程池原有的拒绝策略
+    public static void startServer(WorkStealingPoolService workStealingPoolService){
+        stealingPoolService=workStealingPoolService;
+        startServer();
+    }
+
+    /**
+     * @description: 显式注册一个服务，服务名为实例的类名（不含包名），需在启动前调用
+     * @param service 服务实例，会作为单例被所有调用共享
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/19
+     */
+    public static void register(Object service) {
+        register(service.getClass().getSimpleName(), service);
+    }
+
+    /**
+     * @description: 以指定的服务名显式注册一个服务，需在启动前调用
+     * @param name 服务名，即客户端发来的className
+     * @param service 服务实例，会作为单例被所有调用共享
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/19
+     */
+    public static synchronized void register(String name, Object service) {
+        if (registry != null) throw new IllegalStateException("服务端已启动，不能再注册服务");
+        registered.put(name, service);
+    }
+
+    /**
+     * @description: 启动时没有传入自实现线程池时，按rpc.yml中server下的threadPool创建，
+     * schedule为stealing时创建工作窃取线程池，否则创建共享任务队列的线程池。
+     * 创建的线程池满时抛出异常而不是静默抛弃，以便立即通知客户端服务繁忙
+     * @param map threadPool下的参数，可以为null
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/22
+     */
+    private static void newPoolService(Map<String, Object> map) {
+        String schedule = "shared";
+        if (map != null && map.containsKey("schedule")) schedule = (String) map.get("schedule");
+        if ("stealing".equals(schedule)) {
+            int size = Runtime.getRuntime().availableProcessors();
+            int queueCapacity = WorkStealingPoolService.DEFAULT_QUEUE_CAPACITY;
+            if (map.containsKey("size")) size = (int) map.get("size");
+            if (map.containsKey("queueCapacity")) queueCapacity = (int) map.get("queueCapacity");
+            stealingPoolService = new WorkStealingPoolService(size, queueCapacity);
+            stealingPoolService.setRejectHandler(new AbortRejectHandler());
+            return;
+        }
+        if (!"shared".equals(schedule)) throw new ArgNotFoundExecption("不支持的调度方式：" + schedule);
+        boolean park = false;
+        int queueCapacity = ThreadPoolService.DEFAULT_QUEUE_CAPACITY;
+        if (map != null && map.containsKey("queueCapacity")) queueCapacity = (int) map.get("queueCapacity");
+        if (map != null && map.containsKey("waitStrategy")) {
+            String waitStrategy = (String) map.get("waitStrategy");
+            if (!"park".equals(waitStrategy) && !"spin".equals(waitStrategy))
+                throw new ArgNotFoundExecption("不支持的空闲等待方式：" + waitStrategy);
+            park = "park".equals(waitStrategy);
+        }
+        poolService = new ThreadPoolService(queueCapacity, park);
+        poolService.setRejectHandler(new AbortRejectHandler());
+    }
+
     //启动netty线程组
-    public static void startServer() {
+    @SuppressWarnings("unchecked")
+    public static synchronized void startServer() {
         Map<String, Object> map = YmlUtil.getResMap("server");
         if (!map.containsKey("host")) throw new ArgNotFoundExecption("rpc.yml缺少参数host!");
         host = (String) map.get("host");
         if (!map.containsKey("port")) throw new ArgNotFoundExecption("rpc.yml缺少参数port!");
         port = (Integer) map.get("port");
-        if (!map.containsKey("packageName")) throw new ArgNotFoundExecption("rpc.yml缺少参数packageName!");
+        if (!map.containsKey("packageName") && registered.isEmpty())
+            throw new ArgNotFoundExecption("rpc.yml缺少参数packageName!");
         packageName = (String) map.get("packageName");
         if(map.containsKey("bossSize")) bossSize= (int) map.get("bossSize");
         if(map.containsKey("workerSize")) workerSize= (int) map.get("workerSize");
+        if(map.containsKey("maxFrameLength")) maxFrameLength= (int) map.get("maxFrameLength");
+        if(map.containsKey("flushCoalescing")) {
+            Map<String, Object> flushCoalescing = (Map<String, Object>) map.get("flushCoalescing");
+            flushMaxMessages = FlushCoalescingHandler.DEFAULT_MAX_MESSAGES;
+            if (flushCoalescing != null && flushCoalescing.containsKey("maxMessages"))
+                flushMaxMessages = (int) flushCoalescing.get("maxMessages");
+            if (flushCoalescing != null && flushCoalescing.containsKey("maxDelayMicros"))
+                flushMaxDelayMicros = (int) flushCoalescing.get("maxDelayMicros");
+        }
+        if(map.containsKey("writeBufferWaterMark")) {
+            Map<String, Object> waterMarkMap = (Map<String, Object>) map.get("writeBufferWaterMark");
+            if (waterMarkMap == null || !waterMarkMap.containsKey("low") || !waterMarkMap.containsKey("high"))
+                throw new ArgNotFoundExecption("rpc.yml中writeBufferWaterMark缺少参数low或high!");
+            waterMark = new WriteBufferWaterMark((int) waterMarkMap.get("low"), (int) waterMarkMap.get("high"));
+        }
+        serializer= SerializerFactory.getSerializer((String) map.get("serializer"));
         if(map.containsKey("businessPoolModel")) businessPoolModel= (int) map.get("businessPoolModel");
+        if(map.containsKey("stream")) {
+            Map<String, Object> stream = (Map<String, Object>) map.get("stream");
+            if (stream != null && stream.containsKey("window")) streamWindow = (int) stream.get("window");
+            if (stream != null && stream.containsKey("chunkSize")) streamChunkSize = (int) stream.get("chunkSize");
+        }
+        if(map.containsKey("batchExecution")) {
+            String batchExecution = (String) map.get("batchExecution");
+            if (!"parallel".equals(batchExecution) && !"sequential".equals(batchExecution))
+                throw new ArgNotFoundExecption("不支持的批量执行方式：" + batchExecution);
+            batchParallel = "parallel".equals(batchExecution);
+        }
         if(businessPoolModel==1&&executor==null) throw new ArgNotFoundExecption("缺少jdk线程池");
-        if(businessPoolModel==2&&poolService==null) throw new ArgNotFoundExecption("缺少自实现线程池");
+        if(businessPoolModel==2&&poolService==null&&stealingPoolService==null){
+            newPoolService((Map<String, Object>) map.get("threadPool"));
+            ownsPoolService=true;
+        }
+        if(map.containsKey("admission")) {
+            Map<String, Object> admissionMap = (Map<String, Object>) map.get("admission");
+            int target = (int) AdmissionControl.DEFAULT_TARGET_MILLIS;
+            int interval = (int) AdmissionControl.DEFAULT_INTERVAL_MILLIS;
+            if (admissionMap != null && admissionMap.containsKey("target")) target = (int) admissionMap.get("target");
+            if (admissionMap != null && admissionMap.containsKey("interval")) interval = (int) admissionMap.get("interval");
+            admission = new AdmissionControl(target, interval);
+            log.info("开启准入控制，排队时间目标 " + target + "ms，窗口 " + interval + "ms");
+        }
+        if(businessPoolModel==3){
+            int maxConcurrency=VirtualThreadPoolService.DEFAULT_MAX_CONCURRENCY;
+            if(map.containsKey("maxConcurrency")) maxConcurrency= (int) map.get("maxConcurrency");
+            //没有虚拟线程时退回到平台线程池，线程数和队列容量取threadPool下的size和queueCapacity
+            Map<String, Object> threadPool = (Map<String, Object>) map.get("threadPool");
+            int size = Runtime.getRuntime().availableProcessors();
+            int queueCapacity = VirtualThreadPoolService.DEFAULT_QUEUE_CAPACITY;
+            if (threadPool != null && threadPool.containsKey("size")) size = (int) threadPool.get("size");
+            if (threadPool != null && threadPool.containsKey("queueCapacity")) queueCapacity = (int) threadPool.get("queueCapacity");
+            virtualPoolService=new VirtualThreadPoolService(maxConcurrency,size,queueCapacity);
+        }
+        registry= ServiceRegistry.build(packageName,registered);//在netty线程启动前建立，启动线程保证了可见性
+        bulkheads= Bulkheads.build((Map<String, Object>) map.get("bulkheads"),registry);
         new Thread(() -> {//转移阻塞点，使主线程得以返回
             startServer0();
         }).start();
@@ -86,24 +263,26 @@ public class RPCServer {
 
     //指定boss worker数量启动netty线程组
     private static void startServer0() {
+        final RPCMessageEncoder encoder = new RPCMessageEncoder(serializer, maxFrameLength);
         EventLoopGroup bossGroup = new NioEventLoopGroup(bossSize);
         EventLoopGroup workerGroup = new NioEventLoopGroup(workerSize);
         try {
             ServerBootstrap serverBootstrap = new ServerBootstrap();
             serverBootstrap.group(bossGroup, workerGroup)
                     .channel(NioServerSocketChannel.class)//水平触发，EpollServerSocketChannel边缘触发
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                            waterMark == null ? WriteBufferWaterMark.DEFAULT : waterMark)//超过高水位不可写，暂停读取该连接
                     .childHandler(//作用于workerGroup
                             new ChannelInitializer<SocketChannel>() {//初始化器也算是一个handler,在pipeline中
                                 //初始化socketChannel，完成后从pipeline中移除
                                       @Override
                                       protected void initChannel(SocketChannel ch) throws Exception {
                                           ChannelPipeline pipeline = ch.pipeline();
-                                          ByteBuf delimiter = Unpooled.copiedBuffer("}".getBytes());//“}”为分隔符
-                                          //解码器循环解码，每解析出一个就往后传播
-                                          pipeline.addLast(new DelimiterBasedFrameDecoder(2048,
-                                                  false, delimiter));
-                                          pipeline.addLast(new StringEncoder());//outbound编码器
-                                          pipeline.addLast(new StringDecoder());//inbound解码器
+                                          if(flushMaxMessages>0)//放在最前面，拦截所有flush
+                                              pipeline.addLast(new FlushCoalescingHandler(flushMaxMessages,flushMaxDelayMicros));
+                                          //解码器循环解码，每解析出一条消息就往后传播
+                                          pipeline.addLast(new RPCMessageDecoder(maxFrameLength));
+                                          pipeline.addLast(encoder);//outbound编码器，共享
                                           pipeline.addLast(new RPCServerHandler());//业务处理器
                                       }
                                   }
@@ -116,6 +295,16 @@ public class RPCServer {
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            shutDownPools();
         }
     }
+
+    //关闭服务端自己创建的业务线程池，否则其中的非守护线程会使进程无法退出，已提交的任务仍会执行完
+    private static void shutDownPools() {
+        if (bulkheads != null) bulkheads.shutDown();
+        if (virtualPoolService != null) virtualPoolService.shutDown();
+        if (!ownsPoolService) return;
+        if (poolService != null) poolService.shutDown();
+        if (stealingPoolService != null) stealingPoolService.shutDown();
+    }
 }
@@ -1,16 +1,24 @@
 package com.github.AllenDuke.producerService;
 
 
-import com.alibaba.fastjson.JSON;
+import com.github.AllenDuke.business.AdmissionControl;
+import com.github.AllenDuke.business.BatchResult;
+import com.github.AllenDuke.business.Bulkheads;
 import com.github.AllenDuke.business.InvokeHandler;
 import com.github.AllenDuke.business.InvokeTask;
+import com.github.AllenDuke.business.ServerStreams;
+import com.github.AllenDuke.dto.BatchClientMessage;
 import com.github.AllenDuke.dto.ClientMessage;
 import com.github.AllenDuke.dto.ServerMessage;
+import com.github.AllenDuke.dto.StreamCredit;
 import com.github.AllenDuke.myThreadPoolService.ThreadPoolService;
+import com.github.AllenDuke.myThreadPoolService.VirtualThreadPoolService;
+import com.github.AllenDuke.myThreadPoolService.WorkStealingPoolService;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
@@ -24,16 +32,42 @@ import java.util.concurrent.ThreadPoolExecutor;
 @Slf4j
 public class RPCServerHandler extends ChannelInboundHandlerAdapter {
 
-    private static final InvokeHandler invokeHandler=new InvokeHandler();
+    private static final InvokeHandler invokeHandler=new InvokeHandler(RPCServer.registry);
+
+    private static final Bulkheads bulkheads=RPCServer.bulkheads;
+
+    private static final AdmissionControl admission=RPCServer.admission;
 
     private static final ThreadPoolExecutor executor=RPCServer.executor;
 
     private static final ThreadPoolService poolService=RPCServer.poolService;
 
+    private static final WorkStealingPoolService stealingPoolService=RPCServer.stealingPoolService;
+
+    private static final VirtualThreadPoolService virtualPoolService=RPCServer.virtualPoolService;
+
+
+    //连接建立后公布方法表，客户端收到后的请求只需带上方法id；流式结果的迭代与普通调用一样按业务线程池模型执行
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ctx.channel().attr(ServerStreams.KEY).set(new ServerStreams(ctx, task -> execute(ctx, task),
+                RPCServer.streamWindow, RPCServer.streamChunkSize));
+        ctx.writeAndFlush(RPCServer.registry.getHandshake());
+        super.channelActive(ctx);
+    }
+
+    //连接断开，停止发送流式结果
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ServerStreams streams=ServerStreams.of(ctx);
+        if(streams!=null) streams.closeAll();
+        super.channelInactive(ctx);
+    }
 
     /**
-     * @description: 由netty线程负责接收来自客户端的信息，解析信息，调用相关方法，写回结果
-     * 如果有线程池，将会把信息封装成任务提交到线程池
+     * @description: 由netty线程负责接收来自客户端的信息，调用相关方法，写回结果
+     * 如果有线程池，将会把信息封装成任务提交到线程池，配置了舱壁的服务或方法优先提交到自己的舱壁线程池。
+     * 线程池已满，或开启了准入控制而请求排队太久时，不执行调用，立即通知客户端服务繁忙
      * @param ctx 当前channelHandler所在的环境（重量级对象）
      * @param msg netty线程读取到的信息
      * @return: void
@@ -42,38 +76,101 @@ public class RPCServerHandler extends ChannelInboundHandlerAdapter {
      */
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        log.info("收到信息：" + msg + "，准备解码，调用服务");
-        ClientMessage clientMessage=null;
-        try{
-            clientMessage = JSON.parseObject((String) msg, ClientMessage.class);
-        }catch (Exception e){
-            log.error("解析异常，放弃本次解析任务，即将通知客户端",e);
-            ctx.writeAndFlush("服务器解析异常");
+        if(msg instanceof StreamCredit){//客户端消费了流式结果，归还credit
+            StreamCredit credit=(StreamCredit) msg;
+            ServerStreams.of(ctx).credit(credit.getRequestId(),credit.getCredit());
+            return;
+        }
+        if(msg instanceof BatchClientMessage){
+            ClientMessage[] calls=((BatchClientMessage) msg).getCalls();
+            log.info("收到批量请求，共 "+calls.length+" 个调用");
+            if(calls.length==0) return;
+            InvokeTask[] tasks=new BatchResult(ctx,calls.length).newTasks(calls,invokeHandler);
+            if(RPCServer.batchParallel){//各个调用分别提交，和单独发来的调用一样
+                for (InvokeTask task : tasks) dispatch(ctx,task);
+                return;
+            }
+            Runnable batchTask=() -> {//整批作为一个任务，按顺序执行
+                for (InvokeTask task : tasks) task.run();
+            };
+            try {
+                execute(ctx,admission==null ? batchTask : admission.guard(batchTask,() -> shed("排队超时",tasks)));
+            }catch (RejectedExecutionException e){
+                shed("业务线程池已满",tasks);
+            }
             return;
         }
+        ClientMessage clientMessage=(ClientMessage) msg;//已由解码器反序列化，解析异常的信息已被抛弃
+        log.info("收到信息：" + clientMessage + "，准备调用服务");
+        dispatch(ctx,new InvokeTask(clientMessage,invokeHandler,ctx));
+    }
+
+    //配置了舱壁的服务或方法提交到自己的舱壁线程池，其余按业务线程池模型执行
+    private void dispatch(ChannelHandlerContext ctx, InvokeTask task){
+        if(!bulkheads.isEmpty()){
+            ThreadPoolExecutor bulkhead=bulkheads.route(task.getClientMessage());
+            if(bulkhead!=null){
+                try {
+                    bulkhead.execute(task);
+                }catch (RejectedExecutionException e){//舱壁已满，立即通知调用者，不让它等到超时
+                    shed("舱壁已满",task);
+                }
+                return;
+            }
+        }
+        try {
+            execute(ctx,admission==null ? task : admission.guard(task,() -> shed("排队超时",task)));
+        }catch (RejectedExecutionException e){
+            shed("业务线程池已满",task);
+        }
+    }
+
+    //丢弃请求，不执行调用，通知调用者服务繁忙
+    private static void shed(String reason, InvokeTask... tasks){
+        for (InvokeTask task : tasks) {
+            log.error(reason+"，拒绝请求——"+task.getClientMessage().getRequestId());
+            task.fail(ServerMessage.OVERLOADED);
+        }
+    }
+
+    //按业务线程池模型执行，不开启时由netty线程直接执行，异步实现在完成时才写回，不占用netty线程
+    private void execute(ChannelHandlerContext ctx, Runnable task){
         if(RPCServer.businessPoolModel==1) {
-            executor.execute(new InvokeTask(clientMessage,invokeHandler,ctx));
+            executor.execute(task);
+            return;
+        }
+        if(RPCServer.businessPoolModel==2&&stealingPoolService!=null){//同一channel的任务优先交给同一个线程
+            stealingPoolService.execute(task,ctx.channel().hashCode());
             return;
         }
         if(RPCServer.businessPoolModel==2){
-            poolService.execute(new InvokeTask(clientMessage,invokeHandler,ctx));
+            poolService.execute(task);
             return;
         }
-        Object result=null;
-        try {
-            result= invokeHandler.handle(clientMessage);
-        }catch (Exception e){
-            log.error("实现方法调用异常，放弃本次调用服务，即将通知本次调用者",e);
-            ServerMessage serverMessage=new ServerMessage(clientMessage.getCallerId()
-                    ,clientMessage.getCount()
-                    , false,"实现方法调用异常");
-            ctx.writeAndFlush(JSON.toJSONString(serverMessage));
+        if(RPCServer.businessPoolModel==3){
+            virtualPoolService.execute(task);
             return;
         }
-        ServerMessage serverMessage=new ServerMessage(clientMessage.getCallerId()
-                ,clientMessage.getCount(),true,result);
-        log.info("实现方法调用成功，即将返回信息："+serverMessage);
-        ctx.writeAndFlush(JSON.toJSONString(serverMessage));//转换为json文本
+        task.run();
+    }
+
+    /**
+     * @description: 发送缓冲区超过高水位时暂停读取这个客户端的请求，低于低水位后恢复。
+     * 客户端不读取结果（处理慢或网络慢）时，结果会在发送缓冲区中越积越多，
+     * 停止读取后新的请求留在socket接收缓冲区中，tcp的流量控制会让客户端也停止发送，
+     * 已经在执行的调用写回的结果最多再积压这么多，内存不会无限增长
+     * @param ctx 当前channelHandler所在的环境（重量级对象）
+     * @return: void
+     * @author: 杜科
+     * @date: 2020/3/30
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        boolean writable=ctx.channel().isWritable();
+        ctx.channel().config().setAutoRead(writable);
+        if(writable) log.info("连接 "+ctx.channel().remoteAddress()+" 的发送缓冲区已低于低水位，恢复读取");
+        else log.warn("连接 "+ctx.channel().remoteAddress()+" 的发送缓冲区超过高水位，暂停读取");
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
@@ -1,5 +1,8 @@
 package com.github.AllenDuke.server;
 
+import java.util.Iterator;
+import java.util.stream.Stream;
+
 /**
  * @author 杜科
  * @description 计算器服务，因为用的fastjson，Number类的转换规则按fastjson
@@ -11,4 +14,10 @@ public interface Calculator {
     Integer add(Integer a,  String b);
 
     int multipy(Integer a, Integer b);
+
+    //流式结果，客户端逐个消费[from, to)中的整数
+    Iterator<Integer> range(Integer from, Integer to);
+
+    //流式结果，以Stream的方式逐个消费[from, to)中整数的平方，用完应关闭
+    Stream<Integer> squares(Integer from, Integer to);
 }
@@ -1,5 +1,7 @@
 package com.github.AllenDuke.server;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author 杜科
  * @description sayHello服务
@@ -9,4 +11,7 @@ package com.github.AllenDuke.server;
 public interface HelloService {
 
     String hello(String name1, String name2, Integer num);
+
+    //异步实现，服务端在future完成时才写回结果
+    CompletableFuture<String> helloAsync(String name1, String name2, Integer num);
 }
@@ -1,7 +1,6 @@
 package com.github.AllenDuke.server;
 
 
-import com.github.AllenDuke.myThreadPoolService.ThreadPoolService;
 import com.github.AllenDuke.producerService.RPCServer;
 
 /**
@@ -14,6 +13,6 @@ public class ServerBootstrap {
 
     public static void main(String[] args) {
 
-        RPCServer.startServer(new ThreadPoolService());
+        RPCServer.startServer();//自实现线程池按rpc.yml中的threadPool创建
     }
 }
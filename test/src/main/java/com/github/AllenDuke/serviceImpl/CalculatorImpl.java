@@ -2,6 +2,10 @@ package com.github.AllenDuke.serviceImpl;
 
 import com.github.AllenDuke.server.Calculator;
 
+import java.util.Iterator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
 /**
  * @author 杜科
  * @description 计算器服务实现
@@ -24,4 +28,16 @@ public class CalculatorImpl implements Calculator {
         }
         return a*b;
     }
+
+    //结果不会一次性放在内存中，随客户端的消费逐块产生
+    @Override
+    public Iterator<Integer> range(Integer from, Integer to) {
+        return IntStream.range(from, to).iterator();
+    }
+
+    //同样随客户端的消费逐块产生
+    @Override
+    public Stream<Integer> squares(Integer from, Integer to) {
+        return IntStream.range(from, to).mapToObj(i -> i * i);
+    }
 }
@@ -2,6 +2,8 @@ package com.github.AllenDuke.serviceImpl;
 
 import com.github.AllenDuke.server.HelloService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author 杜科
  * @description sayHello服务实现
@@ -14,6 +16,11 @@ public class HelloServiceImpl implements HelloService {
         return "你好，"+a+" and "+b+" "+num;
     }
 
+    //不占用业务线程等待，结果由别的线程完成后再写回
+    public CompletableFuture<String> helloAsync(String a,String b,Integer num) {
+        return CompletableFuture.supplyAsync(() -> hello(a,b,num));
+    }
+
     //线程安全的单例懒加载模式
     public static HelloServiceImpl getInstance(){
         return HelloServiceImplInner.getHelloService();